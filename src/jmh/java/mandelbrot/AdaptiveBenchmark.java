@@ -0,0 +1,56 @@
+package mandelbrot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+//
+// A block of pixels on the seahorse valley boundary supersampled uniformly with calculateRow(), against
+// adaptive anti-aliasing with calculateAdaptive() at a few thresholds.
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdaptiveBenchmark {
+
+    static final int width = 64;
+    static final int height = 64;
+    static final double ulX = -0.76;
+    static final double ulY = 0.12;
+    static final double xIncrement = 0.04 / width;
+    static final double yIncrement = -xIncrement;
+
+    @Param({"2", "3", "4"})
+    int aaLevel;
+
+    @Param({"0", "4", "16"})
+    int threshold;
+
+    MandelbrotGenerator gen;
+    int[] rates;
+
+    @Setup
+    public void setup() {
+        gen = new MandelbrotGenerator();
+        rates = new int[width * height];
+    }
+
+    @Benchmark
+    public int[] uniform() {
+        gen.beginRegion(ulX, ulY, xIncrement, yIncrement, 0, width, aaLevel);
+        for( int y = 0; y < height; y++ ) {
+            gen.calculateRow(y, rates, y * width);
+        }
+        return rates;
+    }
+
+    @Benchmark
+    public int[] adaptive() {
+        gen.beginRegion(ulX, ulY, xIncrement, yIncrement, 0, width, aaLevel);
+        gen.calculateAdaptive(0, height, rates, threshold);
+        return rates;
+    }
+}
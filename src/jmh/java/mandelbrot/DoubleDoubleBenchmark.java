@@ -0,0 +1,92 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+//
+// A block of points 1e-20 across beside the Misiurewicz point c = i, too narrow for doubles, calculated with
+// the double-double kernel, by perturbation, and point by point in BigDecimal. Times are per point.
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DoubleDoubleBenchmark {
+
+    static final int width = 64;
+    static final int height = 48;
+    static final BigDecimal centreRe = new BigDecimal("0.0000000000000000000000000000000123");
+    static final BigDecimal centreIm = new BigDecimal("1.0000000000000000000000000000000456");
+    static final double increment = 1e-20 / width;
+
+    // Enough digits for the BigDecimal points to be as accurate as the double-double ones
+    static final MathContext mc = new MathContext(40);
+
+    MandelbrotGenerator doubleDouble;
+    MandelbrotGenerator perturbation;
+    int[] rates;
+
+    @Setup
+    public void setup() {
+        double reHi = centreRe.doubleValue();
+        double imHi = centreIm.doubleValue();
+        doubleDouble = new MandelbrotGenerator(reHi, centreRe.subtract(new BigDecimal(reHi)).doubleValue(),
+                imHi, centreIm.subtract(new BigDecimal(imHi)).doubleValue());
+        perturbation = new MandelbrotGenerator(MandelbrotGenerator.Kernel.PERTURBATION,
+                ReferenceOrbit.calculate(centreRe, centreIm, MandelbrotGenerator.maxIterations, mc));
+        rates = new int[width * height];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(width * height)
+    public int[] doubleDouble() {
+        return calculate(doubleDouble);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(width * height)
+    public int[] perturbation() {
+        return calculate(perturbation);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(width * height)
+    public int[] bigDecimal() {
+        BigDecimal four = BigDecimal.valueOf(4);
+        BigDecimal step = new BigDecimal(increment);
+        for( int y = 0; y < height; y++ ) {
+            BigDecimal cIm = centreIm.add(step.multiply(BigDecimal.valueOf(height / 2 - y)), mc);
+            for( int x = 0; x < width; x++ ) {
+                BigDecimal cRe = centreRe.add(step.multiply(BigDecimal.valueOf(x - width / 2)), mc);
+                BigDecimal zRe = cRe;
+                BigDecimal zIm = cIm;
+                int i = 0;
+                for( ; i < MandelbrotGenerator.maxIterations; i++ ) {
+                    BigDecimal re2 = zRe.multiply(zRe, mc);
+                    BigDecimal im2 = zIm.multiply(zIm, mc);
+                    if( re2.add(im2, mc).compareTo(four) >= 0 ) {
+                        break;
+                    }
+                    BigDecimal reIm = zRe.multiply(zIm, mc);
+                    zIm = reIm.add(reIm, mc).add(cIm, mc);
+                    zRe = re2.subtract(im2, mc).add(cRe, mc);
+                }
+                rates[y * width + x] = i;
+            }
+        }
+        return rates;
+    }
+
+    private int[] calculate(MandelbrotGenerator gen) {
+        gen.beginRegion(-increment * (width / 2), increment * (height / 2), increment, -increment, 0, width, 0);
+        for( int y = 0; y < height; y++ ) {
+            gen.calculateRow(y, rates, y * width);
+        }
+        return rates;
+    }
+}
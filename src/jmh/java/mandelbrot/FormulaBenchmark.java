@@ -0,0 +1,131 @@
+package mandelbrot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.numbers.complex.Complex;
+import org.openjdk.jmh.annotations.*;
+
+//
+// Rows of the whole set rendered without anti-aliasing through each formula. hardCoded is a generator with the
+// Mandelbrot formula written straight into calculatePoint() as it was before formulas could be chosen, so it
+// can be compared with mandelbrot to see what choosing the formula costs.
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormulaBenchmark {
+
+    static final int width = 1024;
+    static final int height = 64;
+    static final double ulX = -2.0;
+    static final double ulY = 1.125;
+    static final double xIncrement = 3.0 / width;
+    static final double yIncrement = -2.25 / (height * 12);
+
+    MandelbrotGenerator hardCoded;
+    MandelbrotGenerator mandelbrot;
+    MandelbrotGenerator julia;
+    MandelbrotGenerator multibrot;
+    MandelbrotGenerator burningShip;
+    int[] rates;
+
+    @Setup
+    public void setup() {
+        hardCoded = new HardCoded();
+        mandelbrot = new MandelbrotGenerator(Formula.mandelbrot);
+        julia = new MandelbrotGenerator(new Formula(Formula.Type.JULIA, -0.8, 0.156, 2));
+        multibrot = new MandelbrotGenerator(new Formula(Formula.Type.MULTIBROT, 0.0, 0.0, 3));
+        burningShip = new MandelbrotGenerator(new Formula(Formula.Type.BURNING_SHIP, 0.0, 0.0, 2));
+        rates = new int[width * height];
+    }
+
+    @Benchmark
+    public int[] hardCoded() {
+        return calculate(hardCoded);
+    }
+
+    @Benchmark
+    public int[] mandelbrot() {
+        return calculate(mandelbrot);
+    }
+
+    @Benchmark
+    public int[] julia() {
+        return calculate(julia);
+    }
+
+    @Benchmark
+    public int[] multibrot() {
+        return calculate(multibrot);
+    }
+
+    @Benchmark
+    public int[] burningShip() {
+        return calculate(burningShip);
+    }
+
+    private int[] calculate(MandelbrotGenerator gen) {
+        gen.beginRegion(ulX, ulY, xIncrement, yIncrement, 0, width, 0);
+        for( int y = 0; y < height; y++ ) {
+            gen.calculateRow(y * 6, rates, y * width);
+        }
+        return rates;
+    }
+
+    //
+    // The primitive kernel with z^2 + c and its cycle detection written out, and no formula to choose
+    //
+    static class HardCoded extends MandelbrotGenerator {
+
+        @Override
+        protected int calculatePoint(double X, double Y) {
+            pointsCalculated++;
+
+            if( isInterior(X, Y) ) {
+                return maxIterations;
+            }
+
+            double zRe = X;
+            double zIm = Y;
+            double savedRe = zRe;
+            double savedIm = zIm;
+            int savedInterval = 1;
+            int sinceSaved = 0;
+
+            for( int i = 0; i < maxIterations; i++ ) {
+                double zRe2 = zRe * zRe;
+                double zIm2 = zIm * zIm;
+                double mag2 = zRe2 + zIm2;
+                if( mag2 >= divergenceBandLow ) {
+                    if( mag2 >= divergenceBandHigh || Complex.ofCartesian(zRe, zIm).abs() >= divergenceCeiling ) {
+                        iterationsExecuted += i;
+                        return i;
+                    }
+                }
+
+                double zReZIm = zRe * zIm;
+                zIm = (zReZIm + zReZIm) + Y;
+                zRe = (zRe2 - zIm2) + X;
+
+                if( Math.abs(zRe - savedRe) < periodTolerance && Math.abs(zIm - savedIm) < periodTolerance ) {
+                    periodicPoints++;
+                    iterationsExecuted += i + 1;
+                    return maxIterations;
+                }
+
+                if( ++sinceSaved == savedInterval ) {
+                    savedRe = zRe;
+                    savedIm = zIm;
+                    sinceSaved = 0;
+                    savedInterval <<= 1;
+                }
+            }
+
+            iterationsExecuted += maxIterations;
+            return maxIterations;
+        }
+    }
+}
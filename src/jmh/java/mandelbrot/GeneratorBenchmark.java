@@ -0,0 +1,43 @@
+package mandelbrot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+//
+// Cost of rendering pixels one at a time through calculatePoint(), at increasing anti-aliasing levels.
+// Pixels are taken from a row across seahorse valley, which mixes points that escape quickly with points
+// that run to maxIterations.
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmark {
+
+    static final int width = 256;
+    static final double ulX = -0.76;
+    static final double ulY = 0.105;
+    static final double xIncrement = 0.04 / width;
+    static final double yIncrement = -xIncrement;
+
+    @Param({"0", "1", "2"})
+    int aaLevel;
+
+    MandelbrotGenerator gen;
+
+    @Setup
+    public void setup() {
+        gen = new MandelbrotGenerator();
+    }
+
+    @Benchmark
+    public void calculatePoint(Blackhole bh) {
+        for( int x = 0; x < width; x++ ) {
+            bh.consume(gen.calculatePoint(ulX + ((double) x * xIncrement), ulY, xIncrement, yIncrement, aaLevel));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package mandelbrot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+//
+// Rows of the whole set rendered without anti-aliasing through each escape-time kernel. The forked JVM adds
+// jdk.incubator.vector so the vector kernel is available.
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class KernelBenchmark {
+
+    static final int width = 1024;
+    static final int height = 64;
+    static final double ulX = -2.0;
+    static final double ulY = 1.125;
+    static final double xIncrement = 3.0 / width;
+    static final double yIncrement = -2.25 / (height * 12);
+
+    @Param({"PRIMITIVE", "VECTOR"})
+    MandelbrotGenerator.Kernel kernel;
+
+    MandelbrotGenerator gen;
+    int[] rates;
+
+    @Setup
+    public void setup() {
+        if( MandelbrotGenerator.resolveKernel(kernel) != kernel ) {
+            throw new IllegalStateException(kernel + " kernel is not available");
+        }
+        gen = new MandelbrotGenerator(kernel);
+        rates = new int[width * height];
+    }
+
+    @Benchmark
+    public int[] calculateRows() {
+        gen.beginRegion(ulX, ulY, xIncrement, yIncrement, 0, width, 0);
+        for( int y = 0; y < height; y++ ) {
+            gen.calculateRow(y * 6, rates, y * width);
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,44 @@
+package mandelbrot;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+//
+// PNG encoding of a finished 1024 x 768 render of the whole set, on one thread and more, at the fastest and
+// the default compression levels.
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PngBenchmark {
+
+    @Param({"1", "2", "4"})
+    int threads;
+
+    @Param({"1", "6"})
+    int level;
+
+    BufferedImage img;
+    ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() {
+        MandelbrotArgs mArgs = MandelbrotArgs.parseArgs(new String[] {"-o", "benchmark.png", "-t",
+                Integer.toString(Runtime.getRuntime().availableProcessors())});
+        img = Mandelbrot.render(mArgs);
+        out = new ByteArrayOutputStream(4 * 1024 * 1024);
+    }
+
+    @Benchmark
+    public int writePng() throws IOException {
+        out.reset();
+        return (int) ParallelPngWriter.write(img, out, level, threads);
+    }
+}
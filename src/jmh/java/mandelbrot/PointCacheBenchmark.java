@@ -0,0 +1,57 @@
+package mandelbrot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+//
+// Anti-aliased rendering of the same block of pixels with corner samples shared between neighbours through
+// calculateRow(), against calculating every sample of every pixel independently with calculatePoint().
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointCacheBenchmark {
+
+    static final int width = 64;
+    static final int height = 64;
+    static final double ulX = -0.76;
+    static final double ulY = 0.12;
+    static final double xIncrement = 0.04 / width;
+    static final double yIncrement = -xIncrement;
+
+    @Param({"1", "2"})
+    int aaLevel;
+
+    MandelbrotGenerator gen;
+    int[] rates;
+
+    @Setup
+    public void setup() {
+        gen = new MandelbrotGenerator();
+        rates = new int[width * height];
+    }
+
+    @Benchmark
+    public int[] sharedSamples() {
+        gen.beginRegion(ulX, ulY, xIncrement, yIncrement, 0, width, aaLevel);
+        for( int y = 0; y < height; y++ ) {
+            gen.calculateRow(y, rates, y * width);
+        }
+        return rates;
+    }
+
+    @Benchmark
+    public void independentSamples(Blackhole bh) {
+        for( int y = 0; y < height; y++ ) {
+            double Y = ulY + ((double) y * yIncrement);
+            for( int x = 0; x < width; x++ ) {
+                bh.consume(gen.calculatePoint(ulX + ((double) x * xIncrement), Y, xIncrement, yIncrement, aaLevel));
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package mandelbrot;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+//
+// Full-frame renders of fixed viewports across thread counts, through the same path as the command line.
+//
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    //
+    // whole    - the default view of the entire set
+    // seahorse - seahorse valley, dominated by the boundary
+    // interior - a region entirely inside the main cardioid, where every point runs to maxIterations
+    //
+    @Param({"whole", "seahorse", "interior"})
+    String viewport;
+
+    //
+    // Thread counts relative to the cores of the machine running the benchmark, as -t allows no more than
+    // MandelbrotArgs.maxThreadsPerCore per core. A plain number, e.g. -p threads=3, is used as it is.
+    //
+    @Param({"1", "cores/2", "cores", "cores*2"})
+    String threads;
+
+    MandelbrotArgs mArgs;
+
+    @Setup
+    public void setup() {
+        String[] vp = switch (viewport) {
+            case "whole" -> new String[] {"-2.0", "1.125", "1.0", "-1.125"};
+            case "seahorse" -> new String[] {"-0.76", "0.12", "-0.72", "0.09"};
+            case "interior" -> new String[] {"-0.3", "0.15", "-0.1", "0.0"};
+            default -> throw new IllegalArgumentException("Unknown viewport " + viewport);
+        };
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threadCount = switch (threads) {
+            case "cores/2" -> Math.max(1, cores / 2);
+            case "cores" -> cores;
+            case "cores*2" -> cores * 2;
+            default -> Integer.parseInt(threads);
+        };
+
+        mArgs = MandelbrotArgs.parseArgs(new String[] {"-o", "benchmark.png", "-vp", vp[0], vp[1], vp[2], vp[3],
+                "-r", "640", "480", "-aa", "1", "-t", Integer.toString(threadCount)});
+        if( mArgs.parseErrors ) {
+            throw new IllegalStateException(mArgs.errorMsg);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        return Mandelbrot.render(mArgs);
+    }
+}
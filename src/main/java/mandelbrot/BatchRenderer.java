@@ -0,0 +1,250 @@
+package mandelbrot;
+
+import java.awt.image.BufferedImage;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+//
+// Renders every job in a manifest in this one JVM, so startup and JIT warm-up are paid once for the batch
+// rather than once per image. Each line of the manifest holds the options of one image, as they would be given
+// on the command line, split on whitespace. Blank lines and lines starting with # are skipped.
+//
+// Up to -jobs images are rendered at once, and their tiles and PNG bands all share one pool of -t threads, so
+// one image being encoded or finishing its last slow tiles doesn't leave threads idle. A -t on a job's line is
+// ignored. A failed job is reported and the rest carry on.
+//
+// Each job writes its own -metrics if it has one. The batch's -metrics gets the result of every job, and its
+// -deadline, or Ctrl+C, stops the jobs running and skips the rest.
+//
+public class BatchRenderer {
+
+    private final MandelbrotArgs mArgs;
+    private final RenderDeadline stop;
+
+    BatchRenderer(MandelbrotArgs mArgs, RenderDeadline stop) {
+        this.mArgs = mArgs;
+        this.stop = stop;
+    }
+
+    //
+    // Render the batch, reporting each job in manifest order as it finishes. Returns the number that failed.
+    //
+    int render() throws IOException {
+        long startTimeNano = System.nanoTime();
+
+        List<String> lines = Files.readAllLines(Path.of(mArgs.batchFile));
+        List<Job> jobs = new ArrayList<>();
+        for( int i = 0; i < lines.size(); i++ ) {
+            String line = lines.get(i).strip();
+            if( !line.isEmpty() && !line.startsWith("#") ) {
+                jobs.add(new Job(i + 1, line));
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(mArgs.numThreads);
+        ExecutorService runners = Executors.newFixedThreadPool(mArgs.batchJobs);
+        int failed = 0;
+        int rendered = 0;
+        try {
+            List<Future<Job>> results = new ArrayList<>();
+            for( Job job : jobs ) {
+                results.add(runners.submit(() -> job.run(pool)));
+            }
+
+            for( Future<Job> result : results ) {
+                Job job;
+                try {
+                    job = result.get();
+                } catch ( ExecutionException x ) {
+                    // Job.run() catches what a render can throw, so this is a bug
+                    throw new IllegalStateException(x.getCause());
+                } catch ( InterruptedException x ) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for the batch", x);
+                }
+
+                System.out.println(job.describe());
+                if( job.status == Status.FAILED ) {
+                    failed++;
+                } else if( job.status != Status.SKIPPED ) {
+                    rendered++;
+                }
+            }
+        } finally {
+            runners.shutdownNow();
+            pool.shutdownNow();
+        }
+
+        long timeMs = (System.nanoTime() - startTimeNano) / 1000000;
+        System.out.println("Rendered [" + rendered + "] of [" + jobs.size() + "] jobs in [" + timeMs + "] ms, [" +
+                failed + "] failed");
+
+        if( mArgs.metricsFile != null ) {
+            String json = toJson(jobs);
+            if( "-".equals(mArgs.metricsFile) ) {
+                System.out.print(json);
+            } else {
+                Files.writeString(Path.of(mArgs.metricsFile), json);
+            }
+        }
+        return failed;
+    }
+
+    //
+    // The result of every job as a JSON array, each with its metrics if it was rendered
+    //
+    private static String toJson(List<Job> jobs) {
+        StringBuilder json = new StringBuilder();
+        json.append("[\n");
+        for( int i = 0; i < jobs.size(); i++ ) {
+            Job job = jobs.get(i);
+            json.append("  {\n");
+            json.append("    \"line\": ").append(job.lineNumber).append(",\n");
+            json.append("    \"output\": ").append(job.args == null || job.args.outputFile == null ? "null" :
+                    jsonString(job.args.outputFile)).append(",\n");
+            json.append("    \"status\": \"").append(job.status.name().toLowerCase()).append("\"");
+            if( job.error != null ) {
+                json.append(",\n    \"error\": ").append(jsonString(job.error));
+            }
+            if( job.metrics != null ) {
+                json.append(",\n    \"metrics\": ").append(job.metrics.toJson(job.args).strip().replace("\n", "\n    "));
+            }
+            json.append("\n  }").append(i + 1 < jobs.size() ? ",\n" : "\n");
+        }
+        json.append("]\n");
+        return json.toString();
+    }
+
+    private static String jsonString(String str) {
+        StringBuilder json = new StringBuilder("\"");
+        for( char c : str.toCharArray() ) {
+            if( c == '"' || c == '\\' ) {
+                json.append('\\').append(c);
+            } else if( c < 0x20 ) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    enum Status {
+        // Written in full
+        OK,
+        // Written, but stopped by the deadline before it was finished
+        STOPPED,
+        // Not written, because of bad options or an error while rendering
+        FAILED,
+        // Not started, because the batch was stopped first
+        SKIPPED
+    }
+
+    //
+    // One line of the manifest
+    //
+    private class Job {
+
+        final int lineNumber;
+        final String line;
+
+        MandelbrotArgs args;
+        Status status;
+        String error;
+        RenderMetrics metrics;
+        long renderNanos;
+        long encodeNanos;
+        long bytes;
+
+        Job(int lineNumber, String line) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+        }
+
+        Job run(ForkJoinPool pool) {
+            args = MandelbrotArgs.parseArgs(line.split("\\s+"));
+            if( args.parseErrors ) {
+                return fail(args.errorMsg);
+            } else if( args.stream || args.progressive || args.frames > 0 || args.workers != null ||
+                    args.workerPort > 0 || args.batchFile != null || args.scalingReport != null ) {
+                return fail("Only single images can be rendered in a batch, not streamed, progressive, sequence, " +
+                        "worker, batch or scaling report jobs.");
+            } else if( stop.expired() ) {
+                status = Status.SKIPPED;
+                return this;
+            }
+
+            // Jobs share the batch's threads
+            args.numThreads = mArgs.numThreads;
+            RenderDeadline deadline = stop.within(args.deadline);
+            metrics = new RenderMetrics();
+
+            long nanoStart = System.nanoTime();
+            try (FileOutputStream out = new FileOutputStream(args.outputFile);
+                 IterationBuffer iterations = args.iterationFile == null ? null :
+                         IterationBuffer.create(Path.of(args.iterationFile), args);
+                 TileJournal journal = args.journalFile == null ? null :
+                         TileJournal.open(Path.of(args.journalFile), args, args.resume)) {
+
+                long nanoEncode;
+                RenderMetrics.EncodeEvent encode;
+                if( Mandelbrot.isOffHeap(args) ) {
+                    try (OffHeapImage canvas = Mandelbrot.renderOffHeap(args, iterations, journal, metrics, deadline,
+                            pool)) {
+                        nanoEncode = System.nanoTime();
+                        encode = RenderMetrics.beginEncode();
+                        bytes = ParallelPngWriter.write(canvas, metrics.tilesStopped.sum() > 0, out,
+                                args.compressionLevel, pool);
+                    }
+                } else {
+                    BufferedImage img = Mandelbrot.render(args, iterations, journal, metrics, deadline, pool);
+                    nanoEncode = System.nanoTime();
+                    encode = RenderMetrics.beginEncode();
+                    bytes = ParallelPngWriter.write(img, out, args.compressionLevel, pool);
+                }
+                renderNanos = nanoEncode - nanoStart;
+                encodeNanos = System.nanoTime() - nanoEncode;
+                metrics.encoded(encode, encodeNanos, bytes);
+                metrics.finish(args);
+                if( journal != null ) {
+                    journal.finish(metrics);
+                }
+            } catch (IOException | RuntimeException ex) {
+                return fail(ex.toString());
+            }
+
+            status = metrics.tilesStopped.sum() > 0 ? Status.STOPPED : Status.OK;
+            if( args.metricsFile != null ) {
+                Mandelbrot.writeMetrics(args, metrics);
+            }
+            return this;
+        }
+
+        private Job fail(String error) {
+            status = Status.FAILED;
+            this.error = error;
+            return this;
+        }
+
+        String describe() {
+            String job = "Job on line [" + lineNumber + "]";
+            return switch( status ) {
+                case OK -> job + " wrote [" + args.outputFile + "] in [" + renderNanos / 1000000 +
+                        "] ms plus [" + encodeNanos / 1000000 + "] ms encoding [" + bytes + "] bytes";
+                case STOPPED -> job + " was stopped, writing what it had to [" + args.outputFile + "] after [" +
+                        renderNanos / 1000000 + "] ms";
+                case FAILED -> job + " failed: " + error;
+                case SKIPPED -> job + " was skipped as the batch was stopped";
+            };
+        }
+    }
+}
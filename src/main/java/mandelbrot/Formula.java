@@ -0,0 +1,56 @@
+package mandelbrot;
+
+//
+// The function a MandelbrotGenerator iterates, and its parameters.
+//
+// MANDELBROT iterates z^2 + c from z = c, with c the point being rendered. JULIA iterates the same function
+// from z = the point, with c fixed at juliaRe + juliaIm i. MULTIBROT iterates z^power + c, and BURNING_SHIP
+// iterates (|Re z| + |Im z| i)^2 + c, both from z = c.
+//
+// The generator picks the escape-time loop for the formula once per point, and each loop is written out for
+// its own formula, so nothing is dispatched or boxed per iteration and each inner loop stays monomorphic. A
+// formula is a plain value rather than something with an iterate() method for the same reason.
+//
+public final class Formula {
+
+    public enum Type {
+        MANDELBROT,
+        JULIA,
+        MULTIBROT,
+        BURNING_SHIP
+    }
+
+    static final Formula mandelbrot = new Formula(Type.MANDELBROT, 0.0, 0.0, 2);
+
+    final Type type;
+    final double juliaRe;
+    final double juliaIm;
+    final int power;
+
+    Formula(Type type, double juliaRe, double juliaIm, int power) {
+        if( power < 2 ) {
+            throw new IllegalArgumentException("A formula needs a power of at least 2, not [" + power + "]");
+        }
+        this.type = type;
+        this.juliaRe = juliaRe;
+        this.juliaIm = juliaIm;
+        this.power = type == Type.MULTIBROT ? power : 2;
+    }
+
+    //
+    // The formula chosen by mArgs
+    //
+    static Formula of(MandelbrotArgs mArgs) {
+        return new Formula(mArgs.formula, mArgs.juliaRe, mArgs.juliaIm, mArgs.multibrotPower);
+    }
+
+    @Override
+    public String toString() {
+        return switch( type ) {
+            case MANDELBROT -> "mandelbrot";
+            case JULIA -> "julia at [" + juliaRe + " " + juliaIm + "]";
+            case MULTIBROT -> "multibrot of power [" + power + "]";
+            case BURNING_SHIP -> "burningship";
+        };
+    }
+}
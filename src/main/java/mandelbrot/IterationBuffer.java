@@ -0,0 +1,200 @@
+package mandelbrot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+//
+// The raw escape rates of a render, kept in a memory mapped file so the image can be recoloured without
+// calculating it again.
+//
+// The file starts with a header giving the resolution, anti-aliasing level, iteration limit and the viewport
+// at the precision it was given in, followed by the rates a row at a time from the top left, in one byte each
+// while the iteration limit fits, or two otherwise. Everything is big endian. The rates are mapped in chunks and
+// indexed by long, so there can be more than 2^31 of them.
+//
+//     int    magic, "MBIB"
+//     int    version, 1
+//     int    width, height
+//     int    aaLevel
+//     int    maxIterations
+//     int    bytesPerRate
+//     int    offset of the first rate from the start of the file
+//     4 x    viewport upper left X, upper left Y, lower right X, lower right Y, each as a short length followed
+//            by that many bytes of decimal number in UTF-8
+//
+public class IterationBuffer implements Closeable {
+
+    static final int magic = 0x4D42_4942;
+    static final int version = 1;
+
+    final int width;
+    final int height;
+    final int aaLevel;
+    final int maxIterations;
+    final BigDecimal minViewportX;
+    final BigDecimal maxViewportY;
+    final BigDecimal maxViewportX;
+    final BigDecimal minViewportY;
+
+    private final int bytesPerRate;
+    private final FileChannel channel;
+    private final OffHeapBuffer rates;
+
+    private IterationBuffer(FileChannel channel, FileChannel.MapMode mode, int width, int height, int aaLevel,
+                            int maxIterations, int bytesPerRate, int dataOffset, BigDecimal[] viewport)
+            throws IOException {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.aaLevel = aaLevel;
+        this.maxIterations = maxIterations;
+        this.bytesPerRate = bytesPerRate;
+        this.minViewportX = viewport[0];
+        this.maxViewportY = viewport[1];
+        this.maxViewportX = viewport[2];
+        this.minViewportY = viewport[3];
+
+        rates = OffHeapBuffer.map(channel, mode, dataOffset, (long) width * height * bytesPerRate,
+                ByteOrder.BIG_ENDIAN);
+    }
+
+    //
+    // Create the file at path, replacing any that is already there, for a render of mArgs
+    //
+    static IterationBuffer create(Path path, MandelbrotArgs mArgs) throws IOException {
+        BigDecimal[] viewport = {mArgs.minViewportXExact, mArgs.maxViewportYExact,
+                mArgs.maxViewportXExact, mArgs.minViewportYExact};
+        int bytesPerRate = MandelbrotGenerator.maxIterations < 256 ? 1 : 2;
+
+        byte[][] text = new byte[viewport.length][];
+        int dataOffset = 32;
+        for( int i = 0; i < viewport.length; i++ ) {
+            text[i] = viewport[i].toString().getBytes(StandardCharsets.UTF_8);
+            dataOffset += 2 + text[i].length;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(dataOffset);
+        header.putInt(magic).putInt(version).putInt(mArgs.xResolution).putInt(mArgs.yResolution)
+                .putInt(mArgs.aaCycles).putInt(MandelbrotGenerator.maxIterations).putInt(bytesPerRate)
+                .putInt(dataOffset);
+        for( byte[] bound : text ) {
+            header.putShort((short) bound.length).put(bound);
+        }
+        header.flip();
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            while( header.hasRemaining() ) {
+                channel.write(header);
+            }
+            return new IterationBuffer(channel, FileChannel.MapMode.READ_WRITE, mArgs.xResolution,
+                    mArgs.yResolution, mArgs.aaCycles, MandelbrotGenerator.maxIterations, bytesPerRate, dataOffset,
+                    viewport);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    //
+    // Open an existing file read only
+    //
+    static IterationBuffer open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer fixed = ByteBuffer.allocate(32);
+            while( fixed.hasRemaining() && channel.read(fixed) >= 0 ) {
+                // Keep reading until the fixed part of the header is complete
+            }
+            fixed.flip();
+            if( fixed.remaining() < 32 || fixed.getInt() != magic ) {
+                throw new IOException("[" + path + "] is not an iteration buffer");
+            }
+            int fileVersion = fixed.getInt();
+            if( fileVersion != version ) {
+                throw new IOException("[" + path + "] is iteration buffer version [" + fileVersion +
+                        "], only version [" + version + "] is supported");
+            }
+            int width = fixed.getInt();
+            int height = fixed.getInt();
+            int aaLevel = fixed.getInt();
+            int maxIterations = fixed.getInt();
+            int bytesPerRate = fixed.getInt();
+            int dataOffset = fixed.getInt();
+
+            ByteBuffer text = channel.map(FileChannel.MapMode.READ_ONLY, 32, dataOffset - 32);
+            BigDecimal[] viewport = new BigDecimal[4];
+            for( int i = 0; i < viewport.length; i++ ) {
+                byte[] bound = new byte[text.getShort()];
+                text.get(bound);
+                viewport[i] = new BigDecimal(new String(bound, StandardCharsets.UTF_8));
+            }
+
+            return new IterationBuffer(channel, FileChannel.MapMode.READ_ONLY, width, height, aaLevel, maxIterations,
+                    bytesPerRate, dataOffset, viewport);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    //
+    // Store a block of rates, width x height from x, y, laid out a row at a time in rates. Blocks that don't
+    // overlap may be stored from different threads at once.
+    //
+    void put(int x, int y, int width, int height, int[] rates) {
+        put(x, y, width, height, rates, 0, width);
+    }
+
+    //
+    // As above, but with row j of the block at rates[offset + j * stride]
+    //
+    void put(int x, int y, int width, int height, int[] rates, int offset, int stride) {
+        for( int j = 0; j < height; j++ ) {
+            long index = (long) (y + j) * this.width + x;
+            int rowOffset = offset + j * stride;
+            if( bytesPerRate == 1 ) {
+                for( int i = 0; i < width; i++ ) {
+                    this.rates.put(index + i, (byte) rates[rowOffset + i]);
+                }
+            } else {
+                for( int i = 0; i < width; i++ ) {
+                    this.rates.putShort((index + i) * 2, (short) rates[rowOffset + i]);
+                }
+            }
+        }
+    }
+
+    //
+    // Read count whole rows from row y into rates
+    //
+    void getRows(int y, int count, int[] rates) {
+        long index = (long) y * width;
+        int length = count * width;
+        if( bytesPerRate == 1 ) {
+            for( int i = 0; i < length; i++ ) {
+                rates[i] = this.rates.get(index + i) & 0xFF;
+            }
+        } else {
+            for( int i = 0; i < length; i++ ) {
+                rates[i] = this.rates.getShort((index + i) * 2) & 0xFFFF;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if( !rates.isReadOnly() ) {
+            rates.force();
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,950 @@
+package mandelbrot;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Deflater;
+
+public class Mandelbrot {
+
+    public static void main(String[] args) {
+
+        MandelbrotArgs mArgs = MandelbrotArgs.parseArgs(args);
+
+        if(mArgs.parseErrors) {
+            if(mArgs.debug) {
+                System.err.println("Unable to parse argument string [" + String.join(" ", args) + "]");
+            }
+            System.err.println(mArgs.errorMsg);
+            if(mArgs.printHelp) {
+                System.out.println(mArgs.printUsage());
+            }
+            return;
+        }
+
+        if( mArgs.workerPort > 0 ) {
+            try {
+                new RenderWorker(mArgs).serve();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+
+        if( mArgs.batchFile != null ) {
+            // The deadline covers the whole batch, and Ctrl+C stops it
+            RenderDeadline stop = RenderDeadline.after(mArgs.deadline);
+            stopOnShutdown(stop, Thread.currentThread());
+            try {
+                new BatchRenderer(mArgs, stop).render();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+
+        if( mArgs.scalingReport != null ) {
+            try {
+                new ScalingReport(mArgs).run();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            return;
+        }
+
+        RenderMetrics metrics = new RenderMetrics();
+        RenderDeadline deadline = RenderDeadline.after(mArgs.deadline);
+        stopOnShutdown(deadline, Thread.currentThread());
+
+        if( mArgs.frames > 0 ) {
+            try {
+                new SequenceRenderer(mArgs, metrics, deadline).render();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            reportMetrics(mArgs, metrics);
+            return;
+        }
+
+        //
+        // Output image
+        //
+        FileOutputStream outputF = setupOutputFile(mArgs.outputFile);
+        if( outputF == null ) {
+            return;
+        }
+
+        long startTimeNano = System.nanoTime();
+
+        try (outputF; IterationBuffer iterations = mArgs.iterationFile == null ? null :
+                IterationBuffer.create(Path.of(mArgs.iterationFile), mArgs);
+             TileJournal journal = mArgs.journalFile == null ? null :
+                     TileJournal.open(Path.of(mArgs.journalFile), mArgs, mArgs.resume)) {
+
+            if( mArgs.stream ) {
+                renderStreaming(mArgs, outputF.getChannel(), iterations, journal, metrics, deadline);
+                metrics.finish(mArgs);
+
+                long timeMs = (System.nanoTime() - startTimeNano) / 1000000;
+                System.out.println("Calculated and wrote image in [" + timeMs + "] ms");
+            } else if( isOffHeap(mArgs) ) {
+                ForkJoinPool pool = new ForkJoinPool(mArgs.numThreads);
+                try (OffHeapImage canvas = renderOffHeap(mArgs, iterations, journal, metrics, deadline, pool)) {
+                    long endTimeNano = System.nanoTime();
+                    long timeMs = (endTimeNano - startTimeNano) / 1000000;
+                    System.out.println("Calculated image in [" + timeMs + "] ms");
+
+                    RenderMetrics.EncodeEvent encode = RenderMetrics.beginEncode();
+                    long bytes = ParallelPngWriter.write(canvas, metrics.tilesStopped.sum() > 0, outputF,
+                            mArgs.compressionLevel, pool);
+                    long encodeNanos = System.nanoTime() - endTimeNano;
+                    metrics.encoded(encode, encodeNanos, bytes);
+                    metrics.finish(mArgs);
+                    System.out.println("Encoded image in [" + encodeNanos / 1000000 + "] ms to [" + bytes + "] bytes");
+                } finally {
+                    pool.shutdownNow();
+                }
+            } else {
+                BufferedImage img;
+                if( mArgs.progressive ) {
+                    img = new ProgressiveRenderer(mArgs, iterations, metrics, deadline).render((step, preview) -> {
+                        if( step > 1 ) {
+                            writePreview(mArgs, step, preview, startTimeNano, metrics);
+                        }
+                    });
+                } else if( mArgs.workers != null ) {
+                    img = new RenderCoordinator(mArgs, iterations, metrics, deadline).render();
+                } else {
+                    ForkJoinPool pool = new ForkJoinPool(mArgs.numThreads);
+                    try {
+                        img = render(mArgs, iterations, journal, metrics, deadline, pool);
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+
+                long endTimeNano = System.nanoTime();
+                long timeMs = (endTimeNano - startTimeNano)/ 1000000;
+                System.out.println("Calculated image in [" + timeMs + "] ms");
+
+                RenderMetrics.EncodeEvent encode = RenderMetrics.beginEncode();
+                long bytes = ParallelPngWriter.write(img, outputF, mArgs.compressionLevel, mArgs.numThreads);
+                long encodeNanos = System.nanoTime() - endTimeNano;
+                metrics.encoded(encode, encodeNanos, bytes);
+                metrics.finish(mArgs);
+                System.out.println("Encoded image in [" + encodeNanos / 1000000 + "] ms to [" + bytes + "] bytes");
+            }
+
+            // Only once the image is safely written can the tiles in the journal go
+            if( journal != null ) {
+                journal.finish(metrics);
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+
+        reportMetrics(mArgs, metrics);
+    }
+
+    //
+    // Write the metrics of a finished run as JSON to the -metrics file, or standard output if that is "-", and
+    // to standard output as well when debugging
+    //
+    static void reportMetrics(MandelbrotArgs mArgs, RenderMetrics metrics) {
+        metrics.reportAdaptive();
+        metrics.reportStopped();
+        writeMetrics(mArgs, metrics);
+    }
+
+    //
+    // Write the metrics as JSON as reportMetrics() does, without the summary lines
+    //
+    static void writeMetrics(MandelbrotArgs mArgs, RenderMetrics metrics) {
+        String json = metrics.toJson(mArgs);
+        if( mArgs.debug || "-".equals(mArgs.metricsFile) ) {
+            System.out.print(json);
+        }
+        if( mArgs.metricsFile != null && !"-".equals(mArgs.metricsFile) ) {
+            try {
+                Files.writeString(Path.of(mArgs.metricsFile), json);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    //
+    // Stop the render when the JVM is asked to shut down, by Ctrl+C for instance, and give main a while to
+    // write out what it has before the JVM exits
+    //
+    static void stopOnShutdown(RenderDeadline deadline, Thread main) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            deadline.cancel();
+            try {
+                main.join(shutdownGraceMs);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "shutdown"));
+    }
+
+    //
+    // Time main has after a shutdown request to write out the partial image
+    //
+    static final long shutdownGraceMs = 30000;
+
+    //
+    // Render the viewport described by mArgs into a new image
+    //
+    static BufferedImage render(MandelbrotArgs mArgs) {
+        return render(mArgs, null, new RenderMetrics(), RenderDeadline.none);
+    }
+
+    //
+    // Render the viewport described by mArgs into a new image, also storing the rates in iterations if it
+    // isn't null, and counting the work done in metrics. Tiles not finished when deadline expires are left
+    // blank from the first row not calculated.
+    //
+    static BufferedImage render(MandelbrotArgs mArgs, IterationBuffer iterations, RenderMetrics metrics,
+                                RenderDeadline deadline) {
+        ForkJoinPool pool = new ForkJoinPool(mArgs.numThreads);
+        try {
+            return render(mArgs, iterations, metrics, deadline, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    //
+    // As above, with the tiles calculated on pool, which may be rendering other images at the same time
+    //
+    static BufferedImage render(MandelbrotArgs mArgs, IterationBuffer iterations, RenderMetrics metrics,
+                                RenderDeadline deadline, ForkJoinPool pool) {
+        return render(mArgs, iterations, null, metrics, deadline, pool);
+    }
+
+    //
+    // As above, also recording each finished tile in journal if it isn't null, and taking the tiles already
+    // there from it rather than calculating them
+    //
+    static BufferedImage render(MandelbrotArgs mArgs, IterationBuffer iterations, TileJournal journal,
+                                RenderMetrics metrics, RenderDeadline deadline, ForkJoinPool pool) {
+
+        RenderPlan plan = new RenderPlan(mArgs, iterations, journal, metrics, deadline);
+
+        BufferedImage img = new BufferedImage(mArgs.xResolution, mArgs.yResolution, BufferedImage.TYPE_INT_ARGB);
+
+        //
+        // Now generate. The image is divided into small tiles which are run on a work-stealing pool, so threads
+        // that draw cheap tiles outside the set move on to help with the expensive ones along its boundary.
+        //
+        // Rows mirrored from across the real axis are skipped, and copied once the rest are done
+        List<Calculator> tiles = new ArrayList<>();
+        for( int[] rows : plan.calculatedRows() ) {
+            tiles.addAll(plan.tiles(img, 0, rows[0], rows[1]));
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tiles);
+            }
+        });
+
+        int[] argb = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        plan.mirror((from, to) -> System.arraycopy(argb, from * mArgs.xResolution, argb, to * mArgs.xResolution,
+                mArgs.xResolution));
+
+        return img;
+    }
+
+    //
+    // Whether to render mArgs into an OffHeapImage rather than a BufferedImage: when asked to with -canvas, when
+    // the image has too many pixels for an array, or when it would take more than half the heap
+    //
+    static boolean isOffHeap(MandelbrotArgs mArgs) {
+        return mArgs.canvasFile != null || mArgs.isLargerThanAnArray() ||
+                4L * mArgs.xResolution * mArgs.yResolution > Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    //
+    // Render the viewport described by mArgs as render() does, but into an image off the heap, mapped from
+    // mArgs.canvasFile if there is one. The caller closes the image.
+    //
+    // Rows of tiles are split in halves on the pool until a single row is left, rather than making every tile up
+    // front, so the heap needed doesn't grow with the image.
+    //
+    static OffHeapImage renderOffHeap(MandelbrotArgs mArgs, IterationBuffer iterations, TileJournal journal,
+                                      RenderMetrics metrics, RenderDeadline deadline, ForkJoinPool pool)
+            throws IOException {
+
+        RenderPlan plan = new RenderPlan(mArgs, iterations, journal, metrics, deadline);
+
+        OffHeapImage canvas = mArgs.canvasFile == null ?
+                OffHeapImage.allocate(mArgs.xResolution, mArgs.yResolution) :
+                OffHeapImage.map(Path.of(mArgs.canvasFile), mArgs.xResolution, mArgs.yResolution);
+
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(plan.tileRows(canvas, plan.calculatedRows()));
+                }
+            });
+
+            int[] row = new int[mArgs.xResolution];
+            plan.mirror((from, to) -> {
+                canvas.getRow(from, row);
+                canvas.put(0, to, mArgs.xResolution, 1, row, 0, mArgs.xResolution);
+            });
+        } catch (RuntimeException ex) {
+            canvas.close();
+            throw ex;
+        }
+        return canvas;
+    }
+
+    //
+    // Render the viewport described by mArgs straight to a PNG on channel, one band of tile rows at a time.
+    //
+    // Only a few bands are in flight at once: while the oldest is filtered and compressed on this thread, the
+    // pool carries on with the ones after it. Memory use depends on the image width and the tile size, but not
+    // on the image height.
+    //
+    static void renderStreaming(MandelbrotArgs mArgs, WritableByteChannel channel, IterationBuffer iterations,
+                                TileJournal journal, RenderMetrics metrics, RenderDeadline deadline)
+            throws IOException {
+
+        RenderPlan plan = new RenderPlan(mArgs, iterations, journal, metrics, deadline);
+
+        int bandHeight = mArgs.tileSize;
+        int bands = (mArgs.yResolution + bandHeight - 1) / bandHeight;
+
+        // Enough bands to keep every thread busy, plus the one being encoded
+        int tilesPerBand = (mArgs.xResolution + mArgs.tileSize - 1) / mArgs.tileSize;
+        int window = Math.max(2, (mArgs.numThreads + tilesPerBand - 1) / tilesPerBand + 1);
+
+        ArrayDeque<ForkJoinTask<BufferedImage>> inFlight = new ArrayDeque<>();
+        ForkJoinPool pool = new ForkJoinPool(mArgs.numThreads);
+        try (PngStreamWriter png = new PngStreamWriter(channel, mArgs.xResolution, mArgs.yResolution,
+                mArgs.compressionLevel)) {
+
+            int submitted = 0;
+            for( int band = 0; band < bands; band++ ) {
+                while( submitted < bands && submitted < band + window ) {
+                    int fromY = submitted * bandHeight;
+                    int toY = Math.min(fromY + bandHeight, mArgs.yResolution);
+                    inFlight.add(pool.submit(plan.band(fromY, toY)));
+                    submitted++;
+                }
+
+                BufferedImage img = inFlight.remove().join();
+                int[] argb = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+                RenderMetrics.EncodeEvent encode = RenderMetrics.beginEncode();
+                long nanoStart = System.nanoTime();
+                long bytesBefore = png.bytesWritten();
+                png.writeRows(argb, 0, img.getHeight());
+                metrics.encoded(encode, System.nanoTime() - nanoStart, png.bytesWritten() - bytesBefore);
+            }
+
+            RenderMetrics.EncodeEvent encode = RenderMetrics.beginEncode();
+            long nanoStart = System.nanoTime();
+            long bytesBefore = png.bytesWritten();
+            long bytes = png.finish();
+            metrics.encoded(encode, System.nanoTime() - nanoStart, bytes - bytesBefore);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    //
+    // Everything derived from the arguments that the tiles of one render share
+    //
+    static class RenderPlan {
+
+        final MandelbrotArgs mArgs;
+        final double xIncrement;
+        final double yIncrement;
+        final MandelbrotGenerator.Kernel kernel;
+        final Formula formula;
+        final int[] colours;
+
+        //
+        // Upper left corner of the viewport as passed to the generator. For deep zooms this is the offset from
+        // the reference point or centre, as the points themselves can't be represented as doubles.
+        //
+        final double viewportUlX;
+        final double viewportUlY;
+        final ReferenceOrbit reference;
+
+        //
+        // Centre of the viewport for the double-double kernel, each component as the sum of a high and a low
+        // double
+        //
+        final double centreReHi, centreReLo, centreImHi, centreImLo;
+
+        //
+        // Where to keep the raw rates for recolouring, or null not to
+        //
+        final IterationBuffer iterations;
+
+        //
+        // Where to record finished tiles, and find those finished before a resume, or null not to
+        //
+        final TileJournal journal;
+
+        //
+        // The real axis lies realAxis / 2 rows below the top of the image, or realAxis is -1 if the samples
+        // aren't symmetric about it. Rows mirrorFrom to mirrorTo exclusive are the reflection of rows above it,
+        // row r of row mirrorSum - r, so they are copied rather than calculated. When nothing can be mirrored
+        // both are the image height.
+        //
+        final long realAxis;
+        final int mirrorFrom, mirrorTo, mirrorSum;
+
+        //
+        // Work done by every tile
+        //
+        final RenderMetrics metrics;
+
+        //
+        // When to stop calculating
+        //
+        final RenderDeadline deadline;
+
+        RenderPlan(MandelbrotArgs mArgs, IterationBuffer iterations, RenderMetrics metrics, RenderDeadline deadline) {
+            this(mArgs, iterations, null, metrics, deadline);
+        }
+
+        RenderPlan(MandelbrotArgs mArgs, IterationBuffer iterations, TileJournal journal, RenderMetrics metrics,
+                   RenderDeadline deadline) {
+            this.mArgs = mArgs;
+            this.iterations = iterations;
+            this.journal = journal;
+            this.metrics = metrics;
+            this.deadline = deadline;
+
+            //
+            // Very naive iterative approach
+            //
+            double xPxIncrement = 1.0 / (double) mArgs.xResolution;
+            double yPxIncrement = 1.0 / (double) mArgs.yResolution;
+
+            colours = buildColours();
+            formula = Formula.of(mArgs);
+
+            // Only the Mandelbrot formula has kernels for zooms too deep for doubles
+            boolean deepKernels = formula.type == Formula.Type.MANDELBROT;
+            if( !deepKernels && isTooDeepForDoubles(mArgs) ) {
+                System.err.println("The viewport is too narrow for doubles, so the " + formula + " formula will " +
+                        "come out blocky");
+            }
+
+            BigDecimal two = BigDecimal.valueOf(2);
+            BigDecimal centreX = mArgs.minViewportXExact.add(mArgs.maxViewportXExact).divide(two);
+            BigDecimal centreY = mArgs.minViewportYExact.add(mArgs.maxViewportYExact).divide(two);
+
+            if( mArgs.deepZoom || mArgs.kernel == MandelbrotGenerator.Kernel.DOUBLE_DOUBLE ||
+                    (deepKernels && isTooDeepForDoubles(mArgs)) ) {
+                //
+                // Points are offsets from the centre of the viewport. The increments are worked out from the
+                // exact boundaries, as their doubles may have rounded to the same value.
+                //
+                BigDecimal width = mArgs.maxViewportXExact.subtract(mArgs.minViewportXExact);
+                BigDecimal height = mArgs.maxViewportYExact.subtract(mArgs.minViewportYExact);
+                xIncrement = width.doubleValue() * xPxIncrement;
+                yIncrement = -(height.doubleValue() * yPxIncrement);
+                viewportUlX = mArgs.minViewportXExact.subtract(centreX).doubleValue();
+                viewportUlY = mArgs.maxViewportYExact.subtract(centreY).doubleValue();
+            } else {
+                xIncrement = (mArgs.maxViewportX - mArgs.minViewportX) * xPxIncrement;
+                yIncrement = -((mArgs.maxViewportY - mArgs.minViewportY) * yPxIncrement);
+                viewportUlX = mArgs.minViewportX;
+                viewportUlY = mArgs.maxViewportY;
+            }
+
+            if( mArgs.deepZoom || (deepKernels && isTooDeepForDoubles(mArgs, doubleDoubleBits)) ) {
+                //
+                // Perturbation from a reference orbit through the centre of the viewport
+                //
+                MathContext mc = ReferenceOrbit.precisionFor(centreX.abs().max(centreY.abs()),
+                        Math.min(Math.abs(xIncrement), Math.abs(yIncrement)));
+                long nanoStart = System.nanoTime();
+                reference = ReferenceOrbit.calculate(centreX, centreY, MandelbrotGenerator.maxIterations, mc);
+                kernel = MandelbrotGenerator.Kernel.PERTURBATION;
+                centreReHi = centreReLo = centreImHi = centreImLo = 0.0;
+
+                if( mArgs.debug ) {
+                    System.out.println("Reference orbit of [" + reference.length + "] points at [" + mc.getPrecision() +
+                            "] digits calculated in [" + (System.nanoTime() - nanoStart) / 1000000 + "] ms");
+                }
+            } else if( mArgs.kernel == MandelbrotGenerator.Kernel.DOUBLE_DOUBLE ||
+                    (deepKernels && isTooDeepForDoubles(mArgs)) ) {
+                //
+                // Too deep for doubles, but not for double-double iteration from the exact centre
+                //
+                centreReHi = centreX.doubleValue();
+                centreReLo = centreX.subtract(new BigDecimal(centreReHi)).doubleValue();
+                centreImHi = centreY.doubleValue();
+                centreImLo = centreY.subtract(new BigDecimal(centreImHi)).doubleValue();
+                reference = null;
+                kernel = MandelbrotGenerator.Kernel.DOUBLE_DOUBLE;
+
+                if( mArgs.debug ) {
+                    System.out.println("Using the double-double kernel");
+                }
+            } else {
+                reference = null;
+                centreReHi = centreReLo = centreImHi = centreImLo = 0.0;
+
+                kernel = MandelbrotGenerator.resolveKernel(mArgs.kernel);
+                if( kernel != mArgs.kernel ) {
+                    System.err.println("The " + mArgs.kernel + " kernel is not available, using " + kernel + " instead. " +
+                            "Is the JVM running with --add-modules jdk.incubator.vector?");
+                }
+            }
+
+            //
+            // The Mandelbrot and multibrot sets, and Julia sets of real constants, are symmetric about the real
+            // axis: iterating from the conjugate of a point gives the conjugate of its orbit, exactly, as every
+            // operation only flips the sign of the imaginary parts. When the viewport puts the axis exactly on a
+            // pixel edge or halfway between two, k / 2 rows down, generators sample the rows below it at the
+            // negated imaginary parts of those above, so each row below is an exact copy of its reflection.
+            // Without anti-aliasing a row r is sampled along its top edge, which reflects onto the top edge of row
+            // mirrorSum - r with mirrorSum = k. Otherwise it is sampled between its top and bottom edges, and
+            // reflects onto row k - 1 - r.
+            //
+            // The kernels that work from a centre or a reference orbit aren't symmetric. Subdivided tiles are
+            // sampled symmetrically but not mirrored, as their fills depend on how the image is split into tiles.
+            //
+            boolean symmetric = formula.type == Formula.Type.MANDELBROT || formula.type == Formula.Type.MULTIBROT ||
+                    (formula.type == Formula.Type.JULIA && formula.juliaIm == 0.0);
+            long k = -1;
+            if( symmetric && reference == null && kernel != MandelbrotGenerator.Kernel.DOUBLE_DOUBLE ) {
+                k = realAxisHalfRows(mArgs);
+            }
+            realAxis = k;
+
+            int sum = (int) Math.min(k - (mArgs.aaCycles == 0 ? 0 : 1), Integer.MAX_VALUE);
+            if( sum > 0 && mArgs.renderMode != MandelbrotArgs.RenderMode.SUBDIVIDE &&
+                    sum / 2 + 1 < mArgs.yResolution ) {
+                mirrorFrom = sum / 2 + 1;
+                mirrorTo = Math.min(sum + 1, mArgs.yResolution);
+            } else {
+                mirrorFrom = mirrorTo = mArgs.yResolution;
+            }
+            mirrorSum = sum;
+            if( mArgs.debug && mirrorTo > mirrorFrom ) {
+                System.out.println("Mirroring rows [" + mirrorFrom + "] to [" + (mirrorTo - 1) + "] from above the " +
+                        "real axis");
+            }
+        }
+
+        //
+        // How many half rows below the top of the image the real axis lies, worked out from the exact viewport,
+        // or -1 if it isn't exactly on a pixel edge or halfway between two within the image
+        //
+        static long realAxisHalfRows(MandelbrotArgs mArgs) {
+            if( mArgs.maxViewportYExact.signum() <= 0 || mArgs.minViewportYExact.signum() >= 0 ) {
+                return -1;
+            }
+            BigDecimal halfRows = mArgs.maxViewportYExact.multiply(BigDecimal.valueOf(2L * mArgs.yResolution));
+            BigDecimal[] k = halfRows.divideAndRemainder(mArgs.maxViewportYExact.subtract(mArgs.minViewportYExact));
+            return k[1].signum() == 0 ? k[0].longValueExact() : -1;
+        }
+
+        boolean isMirrored(int row) {
+            return row >= mirrorFrom && row < mirrorTo;
+        }
+
+        //
+        // Bits of significand in a double-double, twice those of a double
+        //
+        static final int doubleDoubleBits = 106;
+
+        //
+        // Doubles stop being able to tell neighbouring pixels apart once the pixel spacing is down to a handful
+        // of units in the last place of the viewport coordinates
+        //
+        static boolean isTooDeepForDoubles(MandelbrotArgs mArgs) {
+            return isTooDeepForDoubles(mArgs, 53);
+        }
+
+        //
+        // The same for a floating point type with a significand of bits rather than a double's 53
+        //
+        static boolean isTooDeepForDoubles(MandelbrotArgs mArgs, int bits) {
+            double magnitude = Math.max(Math.max(Math.abs(mArgs.minViewportX), Math.abs(mArgs.maxViewportX)),
+                    Math.max(Math.abs(mArgs.minViewportY), Math.abs(mArgs.maxViewportY)));
+            double spacing = Math.min(
+                    mArgs.maxViewportXExact.subtract(mArgs.minViewportXExact).abs().doubleValue() / mArgs.xResolution,
+                    mArgs.maxViewportYExact.subtract(mArgs.minViewportYExact).abs().doubleValue() / mArgs.yResolution);
+            return spacing < 16.0 * Math.scalb(Math.ulp(magnitude), 53 - bits);
+        }
+
+        MandelbrotGenerator newGenerator() {
+            MandelbrotGenerator gen;
+            if( kernel == MandelbrotGenerator.Kernel.DOUBLE_DOUBLE ) {
+                gen = new MandelbrotGenerator(centreReHi, centreReLo, centreImHi, centreImLo);
+            } else if( formula.type != Formula.Type.MANDELBROT ) {
+                gen = new MandelbrotGenerator(formula);
+            } else {
+                gen = new MandelbrotGenerator(kernel, reference);
+            }
+            gen.setRealAxis(realAxis);
+            return gen;
+        }
+
+        //
+        // Calculate the escape rates of the width x height block of pixels from ulX, ulY into rates, a row at
+        // a time, with gen. Returns the number of rows calculated, which is less than height if the deadline
+        // expired first. Subdivided and adaptive tiles are calculated whole or not at all.
+        //
+        int calculateTile(MandelbrotGenerator gen, int ulX, int ulY, int width, int height, int[] rates) {
+            return calculateTile(gen, ulX, ulY, width, height, rates, 0, width);
+        }
+
+        //
+        // As above, but with the rates of each row of the block stride apart from rates[offset], so they can
+        // go straight into the pixels of a larger image
+        //
+        int calculateTile(MandelbrotGenerator gen, int ulX, int ulY, int width, int height, int[] rates, int offset,
+                          int stride) {
+            if( deadline.expired() ) {
+                return 0;
+            }
+
+            gen.beginRegion(viewportUlX, viewportUlY, xIncrement, yIncrement, ulX, width, mArgs.aaCycles);
+            if( mArgs.renderMode == MandelbrotArgs.RenderMode.SUBDIVIDE ) {
+                gen.calculateSubdivided(ulY, height, rates, offset, stride, mArgs.filamentGuard);
+            } else if( mArgs.adaptiveThreshold >= 0 ) {
+                gen.calculateAdaptive(ulY, height, rates, offset, stride, mArgs.adaptiveThreshold);
+            } else {
+                for( int y = ulY; y < ulY + height; y++ ) {
+                    if( y > ulY && deadline.expired() ) {
+                        return y - ulY;
+                    }
+                    gen.calculateRow(y, rates, offset + (y - ulY) * stride);
+                }
+            }
+            return height;
+        }
+
+        //
+        // Tiles covering image rows fromY to toY exclusive, drawn into img whose first row is row fromY
+        //
+        List<Calculator> tiles(BufferedImage img, int fromY, int toY) {
+            return tiles(img, fromY, fromY, toY);
+        }
+
+        //
+        // As above, but drawn into img whose first row is row imgRow
+        //
+        List<Calculator> tiles(BufferedImage img, int imgRow, int fromY, int toY) {
+            List<Calculator> tiles = new ArrayList<>();
+            for( int ulY = fromY; ulY < toY; ulY += mArgs.tileSize ) {
+                int lrY = Math.min(ulY + mArgs.tileSize, toY);
+                for( int ulX = 0; ulX < mArgs.xResolution; ulX += mArgs.tileSize ) {
+                    int lrX = Math.min(ulX + mArgs.tileSize, mArgs.xResolution);
+                    tiles.add(new Calculator(this, img, imgRow, ulX, ulY, lrX, lrY));
+                }
+            }
+            return tiles;
+        }
+
+        //
+        // The runs of rows that aren't mirrored, each as {from, to exclusive}, split where rows of tiles meet so
+        // their tiles cover the same pixels as those of tiles() over the whole image, less the mirrored rows
+        //
+        List<int[]> calculatedRows() {
+            List<int[]> runs = new ArrayList<>();
+            int from = 0;
+            for( int row = 0; row <= mArgs.yResolution; row++ ) {
+                boolean skip = row < mArgs.yResolution && isMirrored(row);
+                if( skip || row == mArgs.yResolution || (row % mArgs.tileSize == 0 && row > from) ) {
+                    if( row > from ) {
+                        runs.add(new int[]{from, row});
+                    }
+                    from = skip ? row + 1 : row;
+                }
+            }
+            return runs;
+        }
+
+        //
+        // Copy each mirrored row from the row it reflects, with copy, and into the iteration buffer as well if
+        // there is one. Rows are only mirrored from rows that were calculated.
+        //
+        void mirror(RowCopy copy) {
+            if( mirrorTo == mirrorFrom ) {
+                return;
+            }
+            int[] rates = iterations == null ? null : new int[mArgs.xResolution];
+            for( int row = mirrorFrom; row < mirrorTo; row++ ) {
+                copy.copy(mirrorSum - row, row);
+                if( iterations != null ) {
+                    iterations.getRows(mirrorSum - row, 1, rates);
+                    iterations.put(0, row, mArgs.xResolution, 1, rates);
+                }
+            }
+            metrics.pixelsMirrored.add((long) (mirrorTo - mirrorFrom) * mArgs.xResolution);
+        }
+
+        interface RowCopy {
+            void copy(int from, int to);
+        }
+
+        //
+        // A task rendering runs of rows from calculatedRows() into canvas, split into halves until only one run,
+        // no taller than a row of tiles, is left
+        //
+        RecursiveAction tileRows(OffHeapImage canvas, List<int[]> runs) {
+            return new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    if( runs.size() > 1 ) {
+                        int middle = runs.size() / 2;
+                        invokeAll(tileRows(canvas, runs.subList(0, middle)),
+                                tileRows(canvas, runs.subList(middle, runs.size())));
+                    } else if( runs.size() == 1 ) {
+                        int fromY = runs.get(0)[0];
+                        int toY = runs.get(0)[1];
+                        List<Calculator> tiles = new ArrayList<>();
+                        for( int ulX = 0; ulX < mArgs.xResolution; ulX += mArgs.tileSize ) {
+                            int lrX = Math.min(ulX + mArgs.tileSize, mArgs.xResolution);
+                            tiles.add(new Calculator(RenderPlan.this, canvas, ulX, fromY, lrX, toY));
+                        }
+                        invokeAll(tiles);
+                    }
+                }
+            };
+        }
+
+        //
+        // A task rendering rows fromY to toY exclusive into an image of their own
+        //
+        RecursiveTask<BufferedImage> band(int fromY, int toY) {
+            return new RecursiveTask<>() {
+                @Override
+                protected BufferedImage compute() {
+                    BufferedImage img = new BufferedImage(mArgs.xResolution, toY - fromY, BufferedImage.TYPE_INT_ARGB);
+                    invokeAll(tiles(img, fromY, toY));
+                    return img;
+                }
+            };
+        }
+    }
+
+    //
+    // Precalculate colours for each escape rate
+    //
+    static int[] buildColours() {
+        int[] colours = new int[256];
+        for( int i = 0; i < 255; i++) {
+            Color c = new Color(i/2,i/2,i);
+            colours[i] = c.getRGB();
+        }
+        Color c = new Color(0,0,0);
+        colours[255] = c.getRGB();
+        return colours;
+    }
+
+    //
+    // Write the preview from a progressive pass next to the output file, as <name>.preview-<step>.png
+    //
+    static void writePreview(MandelbrotArgs mArgs, int step, BufferedImage preview, long startTimeNano,
+                             RenderMetrics metrics) {
+        String name = derivedFileName(mArgs.outputFile, ".preview-" + step);
+        RenderMetrics.EncodeEvent encode = RenderMetrics.beginEncode();
+        long nanoStart = System.nanoTime();
+
+        //
+        // Previews are thrown away once the next pass is done, so favour speed over size
+        //
+        int[] argb = ((DataBufferInt) preview.getRaster().getDataBuffer()).getData();
+        try (FileOutputStream out = new FileOutputStream(name);
+             PngStreamWriter png = new PngStreamWriter(out.getChannel(), preview.getWidth(), preview.getHeight(),
+                     Deflater.BEST_SPEED)) {
+            png.writeRows(argb, 0, preview.getHeight());
+            metrics.encoded(encode, System.nanoTime() - nanoStart, png.finish());
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return;
+        }
+
+        long timeMs = (System.nanoTime() - startTimeNano) / 1000000;
+        System.out.println("Wrote preview [" + name + "] at [" + timeMs + "] ms");
+    }
+
+    //
+    // The output file name with suffix added before its extension, e.g. out.png becomes out<suffix>.png
+    //
+    static String derivedFileName(String outputFile, String suffix) {
+        String name = outputFile;
+        int extension = name.lastIndexOf('.');
+        if( extension > name.lastIndexOf(File.separatorChar) ) {
+            name = name.substring(0, extension);
+        }
+        return name + suffix + ".png";
+    }
+
+    //
+    // Renders one tile of the image, from ulX, ulY inclusive to resX, resY exclusive. Pixels are positioned from
+    // the upper left corner of the whole viewport rather than of the tile, so they land on the same points in
+    // the plane whatever the tile size. img may hold only part of the image, starting at row imgRow. Tiles of an
+    // off heap canvas are calculated in an array of their own and then copied into it.
+    //
+    static class Calculator extends RecursiveAction {
+
+        private final RenderPlan plan;
+        private final BufferedImage img;
+        private final OffHeapImage canvas;
+        private final int imgRow;
+        private final int ulX;
+        private final int ulY;
+        private final int resX;
+        private final int resY;
+
+        Calculator(RenderPlan plan, BufferedImage img, int imgRow, int ulX, int ulY, int resX, int resY) {
+            this.plan = plan;
+            this.img = img;
+            this.canvas = null;
+            this.imgRow = imgRow;
+            this.ulX = ulX;
+            this.ulY = ulY;
+            this.resX = resX;
+            this.resY = resY;
+        }
+
+        Calculator(RenderPlan plan, OffHeapImage canvas, int ulX, int ulY, int resX, int resY) {
+            this.plan = plan;
+            this.img = null;
+            this.canvas = canvas;
+            this.imgRow = ulY;
+            this.ulX = ulX;
+            this.ulY = ulY;
+            this.resX = resX;
+            this.resY = resY;
+        }
+
+        @Override
+        protected void compute() {
+            RenderMetrics.TileEvent event = RenderMetrics.beginTile();
+            long nanoStart = System.nanoTime();
+
+            MandelbrotGenerator gen = plan.newGenerator();
+            int portionWidth = resX - ulX;
+            int portionHeight = resY - ulY;
+
+            // Tiles don't overlap, so every tile can write its rates straight into the image's pixels and then
+            // colour them in place without any locking
+            int[] argb;
+            int stride;
+            int offset;
+            if( canvas == null ) {
+                argb = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+                stride = img.getWidth();
+                offset = (ulY - imgRow) * stride + ulX;
+            } else {
+                argb = new int[portionWidth * portionHeight];
+                stride = portionWidth;
+                offset = 0;
+            }
+
+            // Tiles finished before a resume are read back from the journal instead
+            boolean resumed = plan.journal != null && restore(argb, offset, stride);
+            int rows = resumed ? portionHeight :
+                    plan.calculateTile(gen, ulX, ulY, portionWidth, portionHeight, argb, offset, stride);
+            if( rows < portionHeight ) {
+                plan.metrics.tileStopped();
+                if( rows == 0 ) {
+                    return;
+                }
+                portionHeight = rows;
+            }
+
+            long nanoEndGen = System.nanoTime();
+            // Only whole tiles are recorded, so one cut short by the deadline is calculated again on resume
+            if( plan.journal != null && !resumed && portionHeight == resY - ulY ) {
+                record(argb, offset, stride);
+            }
+            if( plan.iterations != null ) {
+                plan.iterations.put(ulX, ulY, portionWidth, portionHeight, argb, offset, stride);
+            }
+
+            for( int y = 0; y < portionHeight; y++ ) {
+                int rowOffset = offset + y * stride;
+                for( int x = rowOffset; x < rowOffset + portionWidth; x++ ) {
+                    argb[ x ] = plan.colours[ argb[ x ] ];
+                }
+            }
+            if( canvas != null ) {
+                canvas.put(ulX, ulY, portionWidth, portionHeight, argb, 0, stride);
+            }
+
+            long nanoEnd = System.nanoTime();
+
+            if( resumed ) {
+                plan.metrics.tileResumed();
+            } else {
+                plan.metrics.tileComplete(event, gen, ulX, ulY, portionWidth, portionHeight, nanoEndGen - nanoStart,
+                        nanoEnd - nanoEndGen);
+            }
+        }
+
+        private boolean restore(int[] rates, int offset, int stride) {
+            try {
+                return plan.journal.restore(ulX, ulY, resX - ulX, resY - ulY, rates, offset, stride);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private void record(int[] rates, int offset, int stride) {
+            try {
+                plan.journal.record(ulX, ulY, resX - ulX, resY - ulY, rates, offset, stride);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    static FileOutputStream setupOutputFile(String filename) {
+        try {
+            File f = new File(filename);
+            if( f.exists() && f.canWrite() ) {
+                return new FileOutputStream(f);
+            } else {
+                if( f.createNewFile() ) {
+                    if( f.canWrite()) {
+                        return new FileOutputStream(f);
+                    } else {
+                        System.err.println("Created a file, but now can't write to it!");
+                        return null;
+                    }
+                }
+            }
+        } catch (IOException ex ) {
+            ex.printStackTrace();
+            return null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,997 @@
+package mandelbrot;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+public class MandelbrotArgs implements Cloneable {
+
+    //
+    // Parse command line parameters and return to the main application
+    //
+
+    // Indicates if there were errors in the parsing process. Do not continue
+    // processing if set to true
+    boolean parseErrors = false;
+    //
+    // Plain text explanation of the first parse error detected. Only to be used if
+    // parseErrors is set to true
+    //
+    String errorMsg = null;
+
+    //
+    // Flag to indicate if debug logging should be printed or not.
+    //
+    boolean debug = false;
+    //
+    // Indicates if the provided arguments suggest the user should see the usage information
+    //
+    boolean printHelp = false;
+
+    //
+    // Output file relative path
+    //
+    String outputFile = null;
+
+    //
+    // Output file format. For the moment PNG is the only supported type
+    //
+    String outputFormat = "PNG";
+
+    //
+    // Deflate level the output PNG is compressed at, from 0 for none to 9 for the smallest and slowest, or -1
+    // for the Deflater default
+    //
+    int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    //
+    // File to keep the raw escape rates in, for recolouring without calculating the image again, or null
+    //
+    String iterationFile = null;
+
+    //
+    // File to map the image into while it is rendered, instead of keeping it in memory, or null. Images too
+    // large for the heap are kept in direct memory when this isn't given.
+    //
+    String canvasFile = null;
+
+    //
+    // File to record each finished tile in as it finishes, or null not to. With resume, the tiles already in it
+    // from an earlier run of the same render are read back rather than calculated again.
+    //
+    String journalFile = null;
+    boolean resume = false;
+
+    //
+    // File to write the metrics of the run to as JSON, "-" for standard output, or null not to
+    //
+    String metricsFile = null;
+
+    //
+    // Write the output image a band of rows at a time while it is being rendered, instead of holding the
+    // whole image in memory until the end
+    //
+    boolean stream = false;
+
+    //
+    // Render in passes of decreasing pixel spacing, writing a preview image after each coarse pass
+    //
+    boolean progressive = false;
+
+    //
+    // Run as a render worker listening on this port for a coordinator, instead of rendering an image. Zero
+    // when not a worker.
+    //
+    int workerPort = 0;
+
+    //
+    // Worker processes to render the image on, or null to render it in this one
+    //
+    List<InetSocketAddress> workers = null;
+
+    //
+    // Seconds to wait for a worker to connect or return a tile before giving it to another
+    //
+    int workerTimeout = 60;
+
+    //
+    // Manifest of jobs to render one after another in this JVM, one line of options per image, or null to
+    // render the single image given by these arguments. Up to batchJobs of them are rendered at once, sharing
+    // numThreads threads.
+    //
+    String batchFile = null;
+    int batchJobs = 2;
+
+    //
+    // File to write a thread scaling report to, see ScalingReport, "-" for standard output, or null to render an
+    // image instead. Each viewport and thread count of the report is timed scalingReps times.
+    //
+    String scalingReport = null;
+    int scalingReps = 3;
+
+    //
+    // Viewport boundaries within the Mandelbrot plane
+    // Technically X represents the real component of the complex plane, while Y represents the
+    // imaginary component.
+    //
+    double minViewportX = -2.0;
+    double maxViewportY = 1.125;
+    double maxViewportX = 1.0;
+    double minViewportY = -1.125;
+
+    //
+    // The same boundaries at the full precision they were given in, for deep zooms where a double can't
+    // represent them closely enough
+    //
+    BigDecimal minViewportXExact = new BigDecimal("-2.0");
+    BigDecimal maxViewportYExact = new BigDecimal("1.125");
+    BigDecimal maxViewportXExact = new BigDecimal("1.0");
+    BigDecimal minViewportYExact = new BigDecimal("-1.125");
+
+    //
+    // Zoom sequence. When frames is above zero, frames images are rendered on a zoom from the -vp viewport to
+    // this one, each written next to the output file as <name>-<frame>.png
+    //
+    int frames = 0;
+    BigDecimal endViewportXMin;
+    BigDecimal endViewportYMax;
+    BigDecimal endViewportXMax;
+    BigDecimal endViewportYMin;
+
+    //
+    // Force perturbation rendering against a high precision reference orbit. It is used automatically when
+    // the viewport is too narrow for doubles to tell neighbouring pixels apart.
+    //
+    boolean deepZoom = false;
+
+    //
+    // Output image resolution.
+    //
+    int xResolution = 1024;
+    int yResolution = 768;
+
+    //
+    // Anti-Aliasing
+    //
+    int aaCycles = 1;
+
+    //
+    // Most anti-aliasing cycles allowed. Each cycle quadruples the samples per pixel, and at this level a pixel
+    // already takes 32 x 32 cells of five samples each.
+    //
+    static final int maxAaCycles = 6;
+
+    //
+    // Adaptive anti-aliasing. When zero or more, pixels are estimated from five samples and only those whose
+    // samples, or neighbours, differ by more than this many iterations are supersampled to the aaCycles level.
+    // Negative to supersample every pixel.
+    //
+    int adaptiveThreshold = -1;
+
+    //
+    // Threads
+    //
+    int numThreads = 1;
+
+    //
+    // Most threads allowed per available core. More than this only adds contention.
+    //
+    static final int maxThreadsPerCore = 4;
+
+    //
+    // Seconds the render may take before it stops and writes out what it has, or zero for no limit
+    //
+    double deadline = 0;
+
+    //
+    // Edge length in pixels of the square tiles the image is divided into for rendering. Smaller tiles balance
+    // the load between threads better, larger ones share more anti-aliasing samples.
+    //
+    int tileSize = 64;
+
+    //
+    // Escape-time kernel. The primitive kernel is the default. The vector kernel needs the JVM to be started
+    // with --add-modules jdk.incubator.vector and falls back to primitive otherwise. The Complex kernel is the
+    // original implementation kept as a reference for comparing output. The double-double kernel is chosen
+    // automatically when the viewport is too narrow for doubles, and perturbation when it is too narrow for
+    // double-doubles.
+    //
+    MandelbrotGenerator.Kernel kernel = MandelbrotGenerator.Kernel.PRIMITIVE;
+
+    //
+    // Fractal to render, see Formula. The Julia constant is only used by JULIA and the power only by MULTIBROT.
+    // Formulas other than MANDELBROT are only rendered by the primitive kernel, in plain doubles.
+    //
+    Formula.Type formula = Formula.Type.MANDELBROT;
+    double juliaRe = -0.8;
+    double juliaIm = 0.156;
+    int multibrotPower = 3;
+
+    //
+    // How each tile is rendered. STANDARD calculates every pixel, SUBDIVIDE uses Mariani-Silver subdivision to
+    // fill rectangles with a uniform border without calculating their interior.
+    //
+    public enum RenderMode {
+        STANDARD,
+        SUBDIVIDE
+    }
+
+    RenderMode renderMode = RenderMode.STANDARD;
+
+    //
+    // Spacing in pixels of the probes checked inside a rectangle before subdivision fills it, so thin filaments
+    // crossing the interior are not lost. Zero disables the probes.
+    //
+    int filamentGuard = 8;
+
+    private MandelbrotArgs() {
+    }
+
+    //
+    // A copy of these arguments for a different viewport
+    //
+    MandelbrotArgs withViewport(BigDecimal ulX, BigDecimal ulY, BigDecimal lrX, BigDecimal lrY) {
+        MandelbrotArgs result;
+        try {
+            result = (MandelbrotArgs) clone();
+        } catch ( CloneNotSupportedException x ) {
+            throw new AssertionError(x);
+        }
+
+        result.minViewportXExact = ulX;
+        result.maxViewportYExact = ulY;
+        result.maxViewportXExact = lrX;
+        result.minViewportYExact = lrY;
+        result.minViewportX = ulX.doubleValue();
+        result.maxViewportY = ulY.doubleValue();
+        result.maxViewportX = lrX.doubleValue();
+        result.minViewportY = lrY.doubleValue();
+        return result;
+    }
+
+    //
+    // Write the arguments a worker needs to calculate tiles of this image
+    //
+    void writeJob(DataOutput out) throws IOException {
+        out.writeInt(xResolution);
+        out.writeInt(yResolution);
+        out.writeInt(aaCycles);
+        out.writeInt(adaptiveThreshold);
+        out.writeInt(filamentGuard);
+        out.writeUTF(kernel.name());
+        out.writeUTF(formula.name());
+        out.writeDouble(juliaRe);
+        out.writeDouble(juliaIm);
+        out.writeInt(multibrotPower);
+        out.writeUTF(renderMode.name());
+        out.writeBoolean(deepZoom);
+        out.writeUTF(minViewportXExact.toString());
+        out.writeUTF(maxViewportYExact.toString());
+        out.writeUTF(maxViewportXExact.toString());
+        out.writeUTF(minViewportYExact.toString());
+    }
+
+    //
+    // Read the arguments written by writeJob()
+    //
+    static MandelbrotArgs readJob(DataInput in) throws IOException {
+        MandelbrotArgs result = new MandelbrotArgs();
+        try {
+            result.xResolution = in.readInt();
+            result.yResolution = in.readInt();
+            result.aaCycles = in.readInt();
+            result.adaptiveThreshold = in.readInt();
+            result.filamentGuard = in.readInt();
+            result.kernel = MandelbrotGenerator.Kernel.valueOf(in.readUTF());
+            result.formula = Formula.Type.valueOf(in.readUTF());
+            result.juliaRe = in.readDouble();
+            result.juliaIm = in.readDouble();
+            result.multibrotPower = in.readInt();
+            result.renderMode = RenderMode.valueOf(in.readUTF());
+            result.deepZoom = in.readBoolean();
+            return result.withViewport(new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF()),
+                    new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF()));
+        } catch ( IllegalArgumentException x ) {
+            throw new IOException("Invalid render job", x);
+        }
+    }
+
+    public String printUsage() {
+        return
+                """
+                        Usage: java mandelbrot.Mandelbrot [-hv] -o <outputFileName> [-f <outputfileFormat][-vp <ulx> <uly> <lrx> <lry>] [-r <x> <y>]
+                        -h, --help\t\t\tDisplay this information and exit
+                        -v, --verbose\t\t\tPrint debugging information
+                        -o <outputFileName>\t\tRelative path and file name of the output image. Must be writable
+                        -f <outputFileFormat>\t\tFormat of the output image. May be PNG (Default) only
+                        -z <level>\t\t\tPNG compression level. 0 (fastest) to 9 (smallest), 6 (Default)
+                        -ib <iterationFile>\t\tAlso save the raw escape rates to this file, for mandelbrot.Recolour
+                        -canvas <file>\t\t\tHold the image in this memory mapped scratch file while it is rendered,
+                        \t\t\t\t\tfor images larger than memory. Deleted once the PNG is written
+                        -journal <file>\t\tRecord each tile in this file as it finishes, so an interrupted render can
+                        \t\t\t\t\tbe resumed. Deleted once the whole image is written
+                        --resume\t\t\tCarry on from the -journal of a render that was stopped or crashed,
+                        \t\t\t\t\tonly calculating the tiles missing from it. Give the same options again
+                        --worker <port>\t\tRun as a render worker for -workers on this port, with -t threads. No -o needed
+                        -workers <host:port>,...\tRender the tiles on these workers instead of in this process
+                        -wt <seconds>\t\t\tTime to wait for a worker before sending its tile to another. 60 (Default)
+                        -batch <manifest>\t\tRender every job in the manifest, one line of these options per image,
+                        \t\t\t\t\tsharing -t threads. -metrics and -deadline cover the whole batch. No -o needed
+                        -jobs <count>\t\t\tImages of a batch rendered at once. Positive Integer, 2 (Default)
+                        --scaling-report <file>\tTime reference viewports on 1, 2, 4... threads up to the cores or -t,
+                        \t\t\t\t\tand write the speedups as CSV, or JSON for a .json file. No -o needed
+                        -reps <count>\t\t\tTimed renders per viewport and thread count of a report. 3 (Default)
+                        -metrics <file>\t\tWrite timings and counters of the run to this file as JSON, - for stdout
+                        -stream\t\t\tWrite the image in bands as they are rendered, to bound memory on large images
+                        -vp <ulx> <uly> <lrx> <lry>\tViewport coordinates, i.e. the X and Y locations of the Upper Left and
+                        \t\t\t\t\tLower Right corners of the image in the Mandelbrot plane. Accepts decimal values
+                        \t\t\t\t\tDefault values show the whole set (-2.0 1.125 1.0 - 1.125)
+                        \t\t\t\t\tAs many digits may be given as a deep zoom needs
+                        -progressive\t\t\tRender every 8th, 4th, 2nd and then every pixel, writing a preview image
+                        \t\t\t\t\tnext to the output after each coarse pass. Not with -stream or -m subdivide
+                        -seq <ulx> <uly> <lrx> <lry> <frames>\tRender a zoom sequence of frames images from the -vp
+                        \t\t\t\t\tviewport to this one, written as <outputFileName>-0000.png etc.
+                        \t\t\t\t\tZoom by a power of two between frames to reuse the most work
+                        -deep\t\t\tRender by perturbation from a high precision reference orbit. Automatic
+                        \t\t\t\t\twhen the viewport is too small for double precision
+                        -r <x> <y>\t\t\tResolution of the output image as integer values X and Y. Defaults to 1024 x 768.
+                        -aa <x>\t\t\tAnti-aliasing cycles. Integer 0 (none) to 6, 1 (Default)
+                        -aat <iterations>\t\tAdaptive anti-aliasing: only supersample to the -aa level the pixels whose
+                        \t\t\t\t\tsamples or neighbours differ by more than this many iterations
+                        -t <threads>\t\t\tNumber of threads to use. Positive Integer 1 (Default) to 4 per available core
+                        -deadline <seconds>\t\tStop rendering after this long and write out what has been done so far.
+                        \t\t\t\t\tUnfinished parts of the image are left blank. Ctrl+C does the same
+                        -ts <pixels>\t\t\tEdge length of the tiles rendered by each thread. Positive Integer, 64 (Default)
+                        -m <mode>\t\t\tRender mode. May be standard (Default) or subdivide (Mariani-Silver)
+                        -fg <pixels>\t\t\tSpacing of the filament guard probes in subdivide mode. 8 (Default), 0 to disable
+                        -k <kernel>\t\t\tEscape-time kernel. May be primitive (Default), vector (SIMD) or complex (reference)
+                        \t\t\t\t\tor doubledouble, which is used automatically when too deep for doubles
+                        -formula <name>\t\tFractal to render. May be mandelbrot (Default), julia, multibrot or
+                        \t\t\t\t\tburningship. Other than mandelbrot, only with the primitive kernel
+                        -jc <re> <im>\t\t\tConstant of the julia formula. Defaults to -0.8 0.156
+                        \t\t\t\t\tTry -vp -1.6 1.2 1.6 -1.2 to see all of it
+                        -power <n>\t\t\tPower of the multibrot formula, z^n + c. Integer 2 or more, 3 (Default)
+                        """;
+    }
+
+    static public MandelbrotArgs parseArgs(String[] args) {
+
+        MandelbrotArgs result = new MandelbrotArgs();
+
+        if( args == null || args.length == 0 ) {
+            result.parseErrors = true;
+            result.errorMsg = "No arguments provided";
+            result.printHelp = true;
+            return result;
+        }
+
+        for( int i = 0; i < args.length && result.parseErrors == false; i++ ) {
+            String switchName = safeGetArg(args, i);
+            if( switchName == null ) {
+                // Should never happen!
+                result.parseErrors = true;
+                result.errorMsg = "Missing argument " + i;
+                return result;
+            }
+
+            if( switchName.compareToIgnoreCase("-h") == 0 ) {
+                result.printHelp = true;
+            } else if( switchName.compareToIgnoreCase("--help") == 0 ) {
+                result.printHelp = true;
+            } else if( switchName.compareToIgnoreCase("-v") == 0 ) {
+                result.debug = true;
+            } else if( switchName.compareToIgnoreCase("-verbose") == 0 ) {
+                result.debug = true;
+            } else if( switchName.compareToIgnoreCase("-o") == 0 ) {
+                String outputFileName = safeGetArg(args, ++i);
+                result.outputFile = outputFileName;
+            } else if( switchName.compareToIgnoreCase( "-f") == 0 ) {
+                String outputFileFormat = safeGetArg(args, ++i);
+                result.outputFormat = outputFileFormat;
+            } else if( switchName.compareToIgnoreCase( "-z") == 0 ) {
+                String zStr = safeGetArg(args, ++i);
+
+                if (zStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Compression Level value.";
+                } else {
+                    try {
+                        result.compressionLevel = Integer.parseInt(zStr);
+                        if( result.compressionLevel < Deflater.NO_COMPRESSION ||
+                                result.compressionLevel > Deflater.BEST_COMPRESSION ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Compression Level must be between 0 and 9.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Compression Level is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-ib") == 0 ) {
+                String iterationFileName = safeGetArg(args, ++i);
+                if( iterationFileName == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing iteration buffer file name.";
+                }
+                result.iterationFile = iterationFileName;
+            } else if( switchName.compareToIgnoreCase( "-canvas") == 0 ) {
+                String canvasFileName = safeGetArg(args, ++i);
+                if( canvasFileName == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing canvas file name.";
+                }
+                result.canvasFile = canvasFileName;
+            } else if( switchName.compareToIgnoreCase( "-journal") == 0 ) {
+                String journalFileName = safeGetArg(args, ++i);
+                if( journalFileName == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing journal file name.";
+                }
+                result.journalFile = journalFileName;
+            } else if( switchName.compareToIgnoreCase("--resume") == 0 ||
+                    switchName.compareToIgnoreCase("-resume") == 0 ) {
+                result.resume = true;
+            } else if( switchName.compareToIgnoreCase("--worker") == 0 ||
+                    switchName.compareToIgnoreCase("-worker") == 0 ) {
+                String portStr = safeGetArg(args, ++i);
+
+                if (portStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing worker port.";
+                } else {
+                    try {
+                        result.workerPort = Integer.parseInt(portStr);
+                        if( result.workerPort < 1 || result.workerPort > 65535 ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Worker port must be between 1 and 65535.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Worker port is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-workers") == 0 ) {
+                String workersStr = safeGetArg(args, ++i);
+
+                if (workersStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing worker addresses.";
+                } else {
+                    result.workers = parseWorkers(result, workersStr);
+                }
+            } else if( switchName.compareToIgnoreCase( "-wt") == 0 ) {
+                String wtStr = safeGetArg(args, ++i);
+
+                if (wtStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Worker Timeout value.";
+                } else {
+                    try {
+                        result.workerTimeout = Integer.parseInt(wtStr);
+                        if( result.workerTimeout < 1 ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Worker Timeout must be a positive integer.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Worker Timeout is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-batch") == 0 ) {
+                result.batchFile = safeGetArg(args, ++i);
+                if( result.batchFile == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing batch manifest file.";
+                }
+            } else if( switchName.compareToIgnoreCase( "-jobs") == 0 ) {
+                String jobsStr = safeGetArg(args, ++i);
+
+                if (jobsStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Job Count value.";
+                } else {
+                    try {
+                        result.batchJobs = Integer.parseInt(jobsStr);
+                        if( result.batchJobs < 1 ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Job Count must be a positive integer.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Job Count is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-metrics") == 0 ) {
+                String metricsFileName = safeGetArg(args, ++i);
+                if( metricsFileName == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing metrics file name.";
+                }
+                result.metricsFile = metricsFileName;
+            } else if( switchName.compareToIgnoreCase( "-stream") == 0 ) {
+                result.stream = true;
+            } else if( switchName.compareToIgnoreCase( "-progressive") == 0 ) {
+                result.progressive = true;
+            } else if( switchName.compareToIgnoreCase( "-seq") == 0 ) {
+                result.endViewportXMin = parseDecimal(result, safeGetArg(args, ++i), "upper left X co-ordinate for the last frame");
+                result.endViewportYMax = parseDecimal(result, safeGetArg(args, ++i), "upper left Y co-ordinate for the last frame");
+                result.endViewportXMax = parseDecimal(result, safeGetArg(args, ++i), "lower right X co-ordinate for the last frame");
+                result.endViewportYMin = parseDecimal(result, safeGetArg(args, ++i), "lower right Y co-ordinate for the last frame");
+
+                String framesStr = safeGetArg(args, ++i);
+
+                if (framesStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Frame Count value.";
+                } else {
+                    try {
+                        result.frames = Integer.parseInt(framesStr);
+                        if( result.frames < 2 ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Frame Count must be at least 2.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Frame Count is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase("--scaling-report") == 0 ||
+                    switchName.compareToIgnoreCase("-scaling-report") == 0 ) {
+                String reportFileName = safeGetArg(args, ++i);
+                if( reportFileName == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing scaling report file name.";
+                }
+                result.scalingReport = reportFileName;
+            } else if( switchName.compareToIgnoreCase( "-reps") == 0 ) {
+                String repsStr = safeGetArg(args, ++i);
+
+                if( repsStr == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Repetitions value.";
+                } else {
+                    try {
+                        result.scalingReps = Integer.parseInt(repsStr);
+                        if( result.scalingReps < 1 ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Repetitions must be a positive integer.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Repetitions is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-formula") == 0 ) {
+                String formulaStr = safeGetArg(args, ++i);
+
+                if (formulaStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing formula name.";
+                } else if (formulaStr.compareToIgnoreCase("mandelbrot") == 0) {
+                    result.formula = Formula.Type.MANDELBROT;
+                } else if (formulaStr.compareToIgnoreCase("julia") == 0) {
+                    result.formula = Formula.Type.JULIA;
+                } else if (formulaStr.compareToIgnoreCase("multibrot") == 0) {
+                    result.formula = Formula.Type.MULTIBROT;
+                } else if (formulaStr.compareToIgnoreCase("burningship") == 0) {
+                    result.formula = Formula.Type.BURNING_SHIP;
+                } else {
+                    result.parseErrors = true;
+                    result.errorMsg = "Formula must be one of mandelbrot, julia, multibrot or burningship.";
+                }
+            } else if( switchName.compareToIgnoreCase( "-jc") == 0 ) {
+                BigDecimal re = parseDecimal(result, safeGetArg(args, ++i), "real part of the Julia constant");
+                BigDecimal im = parseDecimal(result, safeGetArg(args, ++i), "imaginary part of the Julia constant");
+                if( re != null && im != null ) {
+                    result.juliaRe = re.doubleValue();
+                    result.juliaIm = im.doubleValue();
+                }
+            } else if( switchName.compareToIgnoreCase( "-power") == 0 ) {
+                String powerStr = safeGetArg(args, ++i);
+
+                if( powerStr == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Multibrot Power value.";
+                } else {
+                    try {
+                        result.multibrotPower = Integer.parseInt(powerStr);
+                        if( result.multibrotPower < 2 ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Multibrot Power must be at least 2.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Multibrot Power is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-deep") == 0 ) {
+                result.deepZoom = true;
+            } else if( switchName.compareToIgnoreCase( "-vp") == 0 ) {
+                String vpUlXStr = safeGetArg(args, ++i);
+
+                if( vpUlXStr == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing upper left X co-ordinate for the viewport.";
+                } else {
+                    try {
+                        result.minViewportXExact = new BigDecimal(vpUlXStr);
+                        result.minViewportX = result.minViewportXExact.doubleValue();
+                    } catch ( NumberFormatException x ) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Upper left X co-ordinate for the viewport is not a valid decimal number.";
+                    }
+                }
+
+                String vpUlYStr = safeGetArg(args, ++i);
+
+                if( vpUlYStr == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing upper left Y co-ordinate for the viewport.";
+                } else {
+                    try {
+                        result.maxViewportYExact = new BigDecimal(vpUlYStr);
+                        result.maxViewportY = result.maxViewportYExact.doubleValue();
+                    } catch ( NumberFormatException x ) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Upper left Y co-ordinate for the viewport is not a valid decimal number.";
+                    }
+                }
+
+                String vpLRXStr = safeGetArg(args, ++i);
+
+                if( vpLRXStr == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing lower right X co-ordinate for the viewport.";
+                } else {
+                    try {
+                        result.maxViewportXExact = new BigDecimal(vpLRXStr);
+                        result.maxViewportX = result.maxViewportXExact.doubleValue();
+                    } catch ( NumberFormatException x ) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Lower right X co-ordinate for the viewport is not a valid decimal number.";
+                    }
+                }
+
+                String vpLRYStr = safeGetArg(args, ++i);
+
+                if( vpLRYStr == null ) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing lower right Y co-ordinate for the viewport.";
+                } else {
+                    try {
+                        result.minViewportYExact = new BigDecimal(vpLRYStr);
+                        result.minViewportY = result.minViewportYExact.doubleValue();
+                    } catch ( NumberFormatException x ) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Lower right Y co-ordinate for the viewport is not a valid decimal number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-r") == 0 ) {
+                String resXStr = safeGetArg(args, ++i);
+
+                if (resXStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing X resolution for output image.";
+                } else {
+                    try {
+                        result.xResolution = Integer.parseInt(resXStr);
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "X resolution for output image is not a valid integer number.";
+                    }
+                }
+
+                String resYStr = safeGetArg(args, ++i);
+
+                if (resYStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Y resolution for output image.";
+                } else {
+                    try {
+                        result.yResolution = Integer.parseInt(resYStr);
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Y resolution for output image is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-aa") == 0 ) {
+                String aaStr = safeGetArg(args, ++i);
+
+                if (aaStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Anti-Alias value.";
+                } else {
+                    try {
+                        result.aaCycles = Integer.parseInt(aaStr);
+                        if( result.aaCycles < 0 || result.aaCycles > maxAaCycles ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Anti-alias must be between 0 and " + maxAaCycles + ".";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Anti-alias is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-aat") == 0 ) {
+                String aatStr = safeGetArg(args, ++i);
+
+                if (aatStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Adaptive Anti-Alias threshold.";
+                } else {
+                    try {
+                        result.adaptiveThreshold = Integer.parseInt(aatStr);
+                        if( result.adaptiveThreshold < 0 ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Adaptive Anti-Alias threshold must be zero or a positive integer.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Adaptive Anti-Alias threshold is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-t") == 0 ) {
+                String tStr = safeGetArg(args, ++i);
+
+                if (tStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Thread Count value.";
+                } else {
+                    try {
+                        result.numThreads = Integer.parseInt(tStr);
+                        int cores = Runtime.getRuntime().availableProcessors();
+                        if( result.numThreads < 1 || result.numThreads > cores * maxThreadsPerCore ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Thread Count must be between 1 and " + (cores * maxThreadsPerCore) +
+                                    ", " + maxThreadsPerCore + " per available core.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Thread Count is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-deadline") == 0 ) {
+                String deadlineStr = safeGetArg(args, ++i);
+
+                if (deadlineStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Deadline value.";
+                } else {
+                    try {
+                        result.deadline = Double.parseDouble(deadlineStr);
+                        if( !(result.deadline > 0) || Double.isInfinite(result.deadline) ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Deadline must be a positive number of seconds.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Deadline is not a valid decimal number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-ts") == 0 ) {
+                String tsStr = safeGetArg(args, ++i);
+
+                if (tsStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Tile Size value.";
+                } else {
+                    try {
+                        result.tileSize = Integer.parseInt(tsStr);
+                        if( result.tileSize < 1 ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Tile Size must be a positive integer.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Tile Size is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-m") == 0 ) {
+                String mStr = safeGetArg(args, ++i);
+
+                if (mStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing render mode.";
+                } else if (mStr.compareToIgnoreCase("standard") == 0) {
+                    result.renderMode = RenderMode.STANDARD;
+                } else if (mStr.compareToIgnoreCase("subdivide") == 0) {
+                    result.renderMode = RenderMode.SUBDIVIDE;
+                } else {
+                    result.parseErrors = true;
+                    result.errorMsg = "Render mode must be one of standard or subdivide.";
+                }
+            } else if( switchName.compareToIgnoreCase( "-fg") == 0 ) {
+                String fgStr = safeGetArg(args, ++i);
+
+                if (fgStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing Filament Guard value.";
+                } else {
+                    try {
+                        result.filamentGuard = Integer.parseInt(fgStr);
+                        if( result.filamentGuard < 0 ) {
+                            result.parseErrors = true;
+                            result.errorMsg = "Filament Guard must be zero or a positive integer.";
+                        }
+                    } catch (NumberFormatException x) {
+                        result.parseErrors = true;
+                        result.errorMsg = "Filament Guard is not a valid integer number.";
+                    }
+                }
+            } else if( switchName.compareToIgnoreCase( "-k") == 0 ) {
+                String kStr = safeGetArg(args, ++i);
+
+                if (kStr == null) {
+                    result.parseErrors = true;
+                    result.errorMsg = "Missing kernel name.";
+                } else if (kStr.compareToIgnoreCase("primitive") == 0) {
+                    result.kernel = MandelbrotGenerator.Kernel.PRIMITIVE;
+                } else if (kStr.compareToIgnoreCase("vector") == 0) {
+                    result.kernel = MandelbrotGenerator.Kernel.VECTOR;
+                } else if (kStr.compareToIgnoreCase("complex") == 0) {
+                    result.kernel = MandelbrotGenerator.Kernel.COMPLEX;
+                } else if (kStr.compareToIgnoreCase("doubledouble") == 0) {
+                    result.kernel = MandelbrotGenerator.Kernel.DOUBLE_DOUBLE;
+                } else {
+                    result.parseErrors = true;
+                    result.errorMsg = "Kernel must be one of primitive, vector, complex or doubledouble.";
+                }
+            } else {
+                result.parseErrors = true;
+                result.errorMsg = "Unrecognised parameter " + switchName;
+                result.printHelp = true;
+            }
+
+        }
+
+        if( result.progressive && result.stream ) {
+            result.parseErrors = true;
+            result.errorMsg = "Progressive rendering can't be combined with streaming output.";
+        } else if( result.progressive && result.renderMode == RenderMode.SUBDIVIDE ) {
+            result.parseErrors = true;
+            result.errorMsg = "Progressive rendering can't be combined with subdivide mode.";
+        }
+
+        if( result.frames > 0 && (result.stream || result.progressive) ) {
+            result.parseErrors = true;
+            result.errorMsg = "A zoom sequence can't be combined with streaming or progressive output.";
+        } else if( result.frames > 0 && result.iterationFile != null ) {
+            result.parseErrors = true;
+            result.errorMsg = "A zoom sequence can't save an iteration buffer.";
+        }
+
+        if( result.adaptiveThreshold >= 0 && (result.renderMode == RenderMode.SUBDIVIDE || result.progressive ||
+                result.frames > 0) ) {
+            result.parseErrors = true;
+            result.errorMsg = "Adaptive anti-aliasing only works with standard rendering of a single image.";
+        }
+
+        if( result.workers != null && (result.stream || result.progressive || result.frames > 0) ) {
+            result.parseErrors = true;
+            result.errorMsg = "Rendering on workers can't be combined with streaming, progressive or sequence output.";
+        }
+
+        if( result.workers != null && result.tileSize > RenderWorker.maxTileSize ) {
+            result.parseErrors = true;
+            result.errorMsg = "Tile Size must be at most " + RenderWorker.maxTileSize + " when rendering on workers.";
+        }
+
+        if( result.batchFile != null && (result.workerPort > 0 || result.workers != null || result.stream ||
+                result.progressive || result.frames > 0) ) {
+            result.parseErrors = true;
+            result.errorMsg = "A batch can't be combined with workers, streaming, progressive or sequence output.";
+        }
+
+        if( result.formula != Formula.Type.MANDELBROT && (result.deepZoom ||
+                result.kernel != MandelbrotGenerator.Kernel.PRIMITIVE) ) {
+            result.parseErrors = true;
+            result.errorMsg = "Formulas other than mandelbrot are only rendered by the primitive kernel.";
+        }
+
+        if( result.canvasFile != null && (result.stream || result.progressive || result.frames > 0 ||
+                result.workers != null) ) {
+            result.parseErrors = true;
+            result.errorMsg = "A canvas file can't be combined with streaming, progressive, sequence output or workers.";
+        } else if( result.isLargerThanAnArray() && (result.progressive || result.frames > 0 ||
+                result.workers != null) ) {
+            result.parseErrors = true;
+            result.errorMsg = "Images of more than 2^31 pixels can't be rendered progressively, as a sequence or on " +
+                    "workers.";
+        }
+
+        if( result.journalFile != null && (result.progressive || result.frames > 0 || result.workers != null ||
+                result.workerPort > 0 || result.batchFile != null) ) {
+            result.parseErrors = true;
+            result.errorMsg = "A journal can't be combined with progressive or sequence output, workers or batches. " +
+                    "Give each job of a batch a journal of its own.";
+        } else if( result.resume && result.journalFile == null ) {
+            result.parseErrors = true;
+            result.errorMsg = "Resuming needs the -journal of the render to resume.";
+        }
+
+        if( result.scalingReport != null && (result.workerPort > 0 || result.workers != null ||
+                result.batchFile != null || result.stream || result.progressive || result.frames > 0 ||
+                result.canvasFile != null || result.journalFile != null || result.isLargerThanAnArray()) ) {
+            result.parseErrors = true;
+            result.errorMsg = "A scaling report renders whole images in memory, so can't be combined with workers, " +
+                    "batches, canvas files, journals, streaming, progressive or sequence output.";
+        }
+
+        if( result.outputFile == null && result.workerPort == 0 && result.batchFile == null &&
+                result.scalingReport == null ) {
+            result.parseErrors = true;
+            result.errorMsg = "No output file provided.";
+        }
+
+        return result;
+    }
+
+    //
+    // Whether the image has too many pixels to be held in an int array, or a BufferedImage
+    //
+    boolean isLargerThanAnArray() {
+        return (long) xResolution * yResolution > Integer.MAX_VALUE - 8;
+    }
+
+    //
+    // Parse str as a decimal number, flagging a parse error on result mentioning name if it is missing or
+    // invalid. Later errors don't overwrite earlier ones.
+    //
+    static private BigDecimal parseDecimal(MandelbrotArgs result, String str, String name) {
+        if( result.parseErrors ) {
+            return null;
+        }
+
+        if( str == null ) {
+            result.parseErrors = true;
+            result.errorMsg = "Missing " + name + ".";
+            return null;
+        }
+
+        try {
+            return new BigDecimal(str);
+        } catch ( NumberFormatException x ) {
+            result.parseErrors = true;
+            result.errorMsg = name.substring(0, 1).toUpperCase() + name.substring(1) + " is not a valid decimal number.";
+            return null;
+        }
+    }
+
+    //
+    // Parse a comma separated list of host:port worker addresses, flagging a parse error on result if any is
+    // invalid. The hosts are resolved when they are connected to.
+    //
+    static private List<InetSocketAddress> parseWorkers(MandelbrotArgs result, String str) {
+        List<InetSocketAddress> workers = new ArrayList<>();
+        for( String address : str.split(",") ) {
+            int colon = address.lastIndexOf(':');
+            if( colon <= 0 ) {
+                result.parseErrors = true;
+                result.errorMsg = "Worker address [" + address + "] must be host:port.";
+                return null;
+            }
+            try {
+                workers.add(InetSocketAddress.createUnresolved(address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1))));
+            } catch ( IllegalArgumentException x ) {
+                result.parseErrors = true;
+                result.errorMsg = "Worker address [" + address + "] does not have a valid port.";
+                return null;
+            }
+        }
+        return workers;
+    }
+
+    static private String safeGetArg(String[] args, int index ) {
+        if( args.length <= index ) {
+            return null;
+        } else {
+            return args[ index ];
+        }
+    }
+}
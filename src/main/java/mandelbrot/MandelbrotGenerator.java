@@ -0,0 +1,1123 @@
+package mandelbrot;
+
+import org.apache.commons.numbers.complex.Complex;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class MandelbrotGenerator {
+
+    public static final int maxIterations = 255;
+
+    protected static final double divergenceCeiling = 2.0;
+
+    //
+    // The primitive kernel compares |z|^2 against 4 rather than |z| against 2, which avoids a sqrt per
+    // iteration. Squaring rounds differently to the hypot used by Complex.abs(), so within this narrow band
+    // either side of 4 we defer to Complex.abs() to keep iteration counts identical to the reference kernel.
+    //
+    protected static final double divergenceBandLow = (divergenceCeiling * divergenceCeiling) - 1e-12;
+    protected static final double divergenceBandHigh = (divergenceCeiling * divergenceCeiling) + 1e-12;
+
+    //
+    // Escape-time kernels. PRIMITIVE iterates on plain doubles and allocates nothing, VECTOR iterates whole
+    // rows of samples several points at a time with the JDK Vector API, and COMPLEX is the original
+    // commons-numbers implementation kept as a reference to compare results against.
+    //
+    // DOUBLE_DOUBLE is for zooms a little too deep for doubles. Points are given as offsets from a centre held
+    // to twice the precision of a double, and iterated in double-double arithmetic, good for about 32 digits.
+    //
+    // PERTURBATION is for deep zooms. Points are given as offsets from the reference point of a ReferenceOrbit
+    // rather than as positions in the plane, and iterated as differences from its orbit.
+    //
+    public enum Kernel {
+        PRIMITIVE,
+        VECTOR,
+        COMPLEX,
+        DOUBLE_DOUBLE,
+        PERTURBATION
+    }
+
+    protected final Kernel kernel;
+
+    //
+    // What is iterated. Anything but the Mandelbrot formula is only iterated by the primitive kernel.
+    //
+    protected final Formula formula;
+
+    protected final ReferenceOrbit reference;
+
+    //
+    // Centre the double-double kernel's points are offset from, each component the unevaluated sum of a high
+    // and a low double
+    //
+    protected final double centreReHi, centreReLo, centreImHi, centreImLo;
+
+    //
+    // Orbits that come back within this distance of an earlier point are treated as periodic, and so inside
+    // the set. An orbit that drifts by less than this per step is in a bottleneck far too long to escape
+    // within maxIterations anyway.
+    //
+    protected static final double periodTolerance = 1e-12;
+
+    protected long pointsCalculated = 0, samplesUsed = 0;
+
+    // Escape-time iterations actually run, not counting points resolved by the interior short-cuts
+    protected long iterationsExecuted = 0;
+
+    //
+    // Points resolved without running the full iteration loop, by the interior short-cuts
+    //
+    protected long cardioidPoints = 0, bulbPoints = 0, periodicPoints = 0;
+
+    // Points whose perturbed orbit had to be rebased onto the start of the reference orbit
+    protected long rebasedPoints = 0;
+
+    //
+    // Shared-sample grid for the region currently being rendered by calculateRow().
+    //
+    // With anti-aliasing each pixel is split into subdivisions x subdivisions cells, and every cell samples its
+    // four corners and its centre. Corners sit on a lattice spaced (xIncrement / subdivisions) apart, so a corner
+    // is shared by up to four cells and, on the pixel edges, by neighbouring pixels. Lattice rows are held in
+    // rolling int buffers: the bottom row of one pixel row becomes the top row of the next, so memory scales
+    // with the region width rather than with the number of points.
+    //
+    // Lattice positions are always measured from the viewport's upper left corner, so a pixel gets the same
+    // samples however the image is divided into regions.
+    //
+    // When the real axis runs along lattice row gridAxis / 2, rows below it are instead sampled at exactly the
+    // negated imaginary parts of their reflections above it, which a rounded sum from the corner can miss by
+    // an ulp. The image then comes out exactly symmetric, so the lower half can be copied from the upper one.
+    //
+    protected double gridUlX, gridUlY, gridXStep, gridYStep;
+    protected int gridColumn, gridWidth, gridAaLevel, subdivisions;
+    protected long realAxis = -1, gridAxis = -1;
+    protected int lastRow = -1;
+    protected int[][] cornerRows;
+    protected int[][] centreRows;
+
+    // Real components of the samples along a row, for the vector kernel
+    protected double[] rowScratch;
+
+    // Samples for a single pixel calculated by calculatePixel()
+    protected int[][] pixelCorners;
+    protected int[][] pixelCentres;
+
+    //
+    // Lattice corners already calculated by calculatePixel(), indexed from lattice row memoRow and the region's
+    // first lattice column. Pixels are visited in no particular order, so unlike calculateRow() this covers the
+    // whole region rather than rolling rows.
+    //
+    protected int[] cornerMemo;
+    protected int memoRow, memoColumn, memoWidth;
+
+    //
+    // Rectangles this narrow or narrower are calculated outright rather than subdivided any further
+    //
+    protected static final int minSubdivision = 4;
+
+    // Pixels filled in by subdivision rather than calculated
+    protected long pixelsFilled = 0;
+
+    // Where the region being subdivided starts in its rates array, and the distance between its rows
+    protected int subdivideOffset, subdivideStride;
+
+    // Pixels given adaptive anti-aliasing, and how many of those were supersampled beyond the first estimate
+    protected long pixelsAdaptive = 0, pixelsRefined = 0;
+
+    public MandelbrotGenerator() {
+        this(Kernel.PRIMITIVE);
+    }
+
+    public MandelbrotGenerator(Kernel kernel) {
+        this(kernel, null);
+    }
+
+    public MandelbrotGenerator(Kernel kernel, ReferenceOrbit reference) {
+        if( (kernel == Kernel.PERTURBATION) != (reference != null) ) {
+            throw new IllegalArgumentException("A reference orbit is needed for, and only for, the perturbation kernel");
+        }
+        if( kernel == Kernel.DOUBLE_DOUBLE ) {
+            throw new IllegalArgumentException("The double-double kernel needs a centre");
+        }
+        this.kernel = kernel;
+        this.formula = Formula.mandelbrot;
+        this.reference = reference;
+        centreReHi = centreReLo = centreImHi = centreImLo = 0.0;
+    }
+
+    //
+    // A generator for the primitive kernel iterating formula
+    //
+    public MandelbrotGenerator(Formula formula) {
+        this.kernel = Kernel.PRIMITIVE;
+        this.formula = formula;
+        this.reference = null;
+        centreReHi = centreReLo = centreImHi = centreImLo = 0.0;
+    }
+
+    //
+    // A generator for the double-double kernel, whose points are offsets from centreReHi + centreReLo,
+    // centreImHi + centreImLo
+    //
+    public MandelbrotGenerator(double centreReHi, double centreReLo, double centreImHi, double centreImLo) {
+        this.kernel = Kernel.DOUBLE_DOUBLE;
+        this.formula = Formula.mandelbrot;
+        this.reference = null;
+        this.centreReHi = centreReHi;
+        this.centreReLo = centreReLo;
+        this.centreImHi = centreImHi;
+        this.centreImLo = centreImLo;
+    }
+
+    //
+    // The kernel to actually use when the requested one is asked for. The vector kernel falls back to the
+    // primitive one when jdk.incubator.vector hasn't been added to the JVM, or the CPU has no vector lanes
+    // wider than a single double.
+    //
+    public static Kernel resolveKernel(Kernel requested) {
+        if( requested != Kernel.VECTOR ) {
+            return requested;
+        }
+
+        try {
+            if( VectorKernel.isSupported() ) {
+                return Kernel.VECTOR;
+            }
+        } catch (LinkageError e) {
+            // Run without --add-modules jdk.incubator.vector
+        }
+        return Kernel.PRIMITIVE;
+    }
+
+    //
+    // Sample the rows below the real axis as reflections of those above it, with the axis halfRows / 2 pixel
+    // rows below the upper edge of the viewports passed to beginRegion(), or not if halfRows is negative. Only
+    // worth doing for formulas that are symmetric about the real axis.
+    //
+    public void setRealAxis(long halfRows) {
+        realAxis = halfRows;
+    }
+
+    //
+    // Prepare to render a region of width pixels starting at pixel column, in a viewport whose upper left corner
+    // is at ulX, ulY. Rows are then requested with calculateRow(), ideally in order from the top so corner
+    // samples can be shared.
+    //
+    public void beginRegion(double ulX, double ulY, double xIncrement, double yIncrement, int column, int width,
+                            int aaLevel) {
+        gridUlX = ulX;
+        gridUlY = ulY;
+        gridColumn = column;
+        gridWidth = width;
+        gridAaLevel = aaLevel;
+        lastRow = -1;
+
+        if( aaLevel == 0 ) {
+            subdivisions = 1;
+            gridXStep = xIncrement;
+            gridYStep = yIncrement;
+        } else {
+            subdivisions = 1 << (aaLevel - 1);
+            gridXStep = xIncrement / subdivisions;
+            gridYStep = yIncrement / subdivisions;
+            int latticeWidth = width * subdivisions;
+            if( cornerRows == null || cornerRows.length != subdivisions + 1 || cornerRows[0].length != latticeWidth + 1 ) {
+                cornerRows = new int[subdivisions + 1][latticeWidth + 1];
+                centreRows = new int[subdivisions][latticeWidth];
+            }
+        }
+        gridAxis = realAxis < 0 ? -1 : realAxis * subdivisions;
+    }
+
+    //
+    // Imaginary part of the samples on lattice row latticeRow
+    //
+    protected double latticeY(long latticeRow) {
+        if( gridAxis >= 0 && 2 * latticeRow > gridAxis ) {
+            return -(gridUlY + ((double) (gridAxis - latticeRow) * gridYStep));
+        }
+        return gridUlY + ((double) latticeRow * gridYStep);
+    }
+
+    //
+    // Imaginary part of the centres of the cells between lattice rows latticeRow and latticeRow + 1
+    //
+    protected double centreY(long latticeRow) {
+        if( gridAxis >= 0 && 2 * latticeRow + 1 > gridAxis ) {
+            return -(gridUlY + ((double) (gridAxis - latticeRow - 1) * gridYStep) + gridYStep / 2.0);
+        }
+        return gridUlY + ((double) latticeRow * gridYStep) + gridYStep / 2.0;
+    }
+
+    //
+    // Calculate the rates for one pixel row of the current region into rates[offset .. offset + width)
+    //
+    public void calculateRow(int row, int[] rates, int offset) {
+
+        if( gridAaLevel == 0 ) {
+            sampleRow(latticeY(row), 0.0, gridWidth, rates, offset);
+            samplesUsed += gridWidth;
+            return;
+        }
+
+        int s = subdivisions;
+        int latticeWidth = gridWidth * s;
+        int latticeRow = row * s;
+
+        //
+        // The top lattice row of this pixel row is the bottom lattice row of the previous one, unless rows
+        // were requested out of order.
+        //
+        if( row == lastRow + 1 && lastRow >= 0 ) {
+            int[] top = cornerRows[s];
+            cornerRows[s] = cornerRows[0];
+            cornerRows[0] = top;
+        } else {
+            sampleRow(latticeY(latticeRow), 0.0, latticeWidth + 1, cornerRows[0], 0);
+        }
+
+        for( int j = 1; j <= s; j++ ) {
+            sampleRow(latticeY(latticeRow + j), 0.0, latticeWidth + 1, cornerRows[j], 0);
+        }
+        for( int j = 0; j < s; j++ ) {
+            sampleRow(centreY(latticeRow + j), gridXStep / 2.0, latticeWidth, centreRows[j], 0);
+        }
+        lastRow = row;
+
+        for( int x = 0; x < gridWidth; x++ ) {
+            rates[offset + x] = averageCells(cornerRows, centreRows, x * s, 0, s);
+        }
+        samplesUsed += 5L * s * s * gridWidth;
+    }
+
+    //
+    // Average the cells of a size x size block whose top left cell is at column, row in the lattice. Blocks are
+    // split into quadrants in the same way as the recursive calculatePoint() so integer rounding is identical.
+    //
+    protected static int averageCells(int[][] corners, int[][] centres, int column, int row, int size) {
+        if( size == 1 ) {
+            return (corners[row][column] + corners[row][column + 1] + corners[row + 1][column] +
+                    corners[row + 1][column + 1] + centres[row][column]) / 5;
+        }
+
+        int half = size / 2;
+        return (averageCells(corners, centres, column, row, half) +
+                averageCells(corners, centres, column + half, row, half) +
+                averageCells(corners, centres, column, row + half, half) +
+                averageCells(corners, centres, column + half, row + half, half)) / 4;
+    }
+
+    //
+    // Calculate a single pixel of the current region, at pixel column and row of the viewport, from the same
+    // lattice points calculateRow() would use. Corners are shared with neighbouring pixels through the corner
+    // memo while one is attached, and calculated afresh otherwise.
+    //
+    public int calculatePixel(int column, int row) {
+        if( gridAaLevel == 0 ) {
+            samplesUsed++;
+            return calculatePoint(gridUlX + ((double) column * gridXStep), latticeY(row));
+        }
+
+        int s = subdivisions;
+        if( pixelCorners == null || pixelCorners.length != s + 1 ) {
+            pixelCorners = new int[s + 1][s + 1];
+            pixelCentres = new int[s][s];
+        }
+
+        int latticeColumn = column * s;
+        int latticeRow = row * s;
+        for( int j = 0; j <= s; j++ ) {
+            double Y = latticeY(latticeRow + j);
+            double centreY = j < s ? centreY(latticeRow + j) : 0.0;
+            for( int i = 0; i <= s; i++ ) {
+                double X = gridUlX + ((double) (latticeColumn + i) * gridXStep);
+                pixelCorners[j][i] = latticeCorner(latticeColumn + i, latticeRow + j, X, Y);
+                if( i < s && j < s ) {
+                    pixelCentres[j][i] = calculatePoint(X + gridXStep / 2.0, centreY);
+                }
+            }
+        }
+        samplesUsed += 5L * s * s;
+
+        return averageCells(pixelCorners, pixelCentres, 0, 0, s);
+    }
+
+    protected int latticeCorner(int latticeColumn, int latticeRow, double X, double Y) {
+        if( cornerMemo == null ) {
+            return calculatePoint(X, Y);
+        }
+
+        int offset = (latticeRow - memoRow) * memoWidth + (latticeColumn - memoColumn);
+        if( cornerMemo[offset] < 0 ) {
+            cornerMemo[offset] = calculatePoint(X, Y);
+        }
+        return cornerMemo[offset];
+    }
+
+    //
+    // A corner memo for a region of width x height pixels, or null if there are no corners to share at this
+    // anti-aliasing level
+    //
+    public static int[] newCornerMemo(int width, int height, int aaLevel) {
+        if( aaLevel == 0 ) {
+            return null;
+        }
+
+        int s = 1 << (aaLevel - 1);
+        int[] memo = new int[(width * s + 1) * (height * s + 1)];
+        Arrays.fill(memo, -1);
+        return memo;
+    }
+
+    //
+    // Share corners between calculatePixel() calls through memo, which covers the current region from pixel row
+    // row downwards. A memo may be attached to generators on several threads at once: a corner read before
+    // another thread's write is visible is just calculated again, to the same value.
+    //
+    public void attachCornerMemo(int[] memo, int row) {
+        attachCornerMemo(memo, gridColumn, row, gridWidth);
+    }
+
+    protected void attachCornerMemo(int[] memo, int column, int row, int width) {
+        cornerMemo = memo;
+        memoColumn = column * subdivisions;
+        memoRow = row * subdivisions;
+        memoWidth = width * subdivisions + 1;
+    }
+
+    //
+    // Adaptive anti-aliasing of height rows of the current region, starting at row, into rates.
+    //
+    // Every pixel is first estimated from five samples: its corners and its centre. Pixels whose samples
+    // spread over more than threshold iterations, or whose estimate is more than threshold away from one of
+    // its four neighbours, are then supersampled up to the region's anti-aliasing level. Each quadrant is only
+    // split further while its own corners and centre spread over more than threshold, so smooth parts of a
+    // pixel stop early. Everything else keeps its estimate.
+    //
+    // A negative threshold refines every quadrant, giving exactly the same rates as calculateRow(). The
+    // estimates of a one pixel ring around the region are worked out for the neighbour test as well, so the
+    // result doesn't depend on how the image is split into regions.
+    //
+    public void calculateAdaptive(int row, int height, int[] rates, int threshold) {
+        calculateAdaptive(row, height, rates, 0, gridWidth, threshold);
+    }
+
+    //
+    // As above, but with the rates of row y of the region at rates[offset + y * stride], so they can go straight
+    // into a larger image
+    //
+    public void calculateAdaptive(int row, int height, int[] rates, int offset, int stride, int threshold) {
+        if( gridAaLevel == 0 ) {
+            for( int y = 0; y < height; y++ ) {
+                calculateRow(row + y, rates, offset + y * stride);
+            }
+            return;
+        }
+
+        int s = subdivisions;
+        int ringWidth = gridWidth + 2;
+        int ringHeight = height + 2;
+        int[] estimates = new int[ringWidth * ringHeight];
+        int[] spreads = new int[ringWidth * ringHeight];
+
+        attachCornerMemo(newCornerMemo(ringWidth, ringHeight, gridAaLevel), gridColumn - 1, row - 1, ringWidth);
+        try {
+            for( int y = 0; y < ringHeight; y++ ) {
+                for( int x = 0; x < ringWidth; x++ ) {
+                    int latticeColumn = (gridColumn + x - 1) * s;
+                    int latticeRow = (row + y - 1) * s;
+                    int p1 = memoCorner(latticeColumn, latticeRow);
+                    int p2 = memoCorner(latticeColumn + s, latticeRow);
+                    int p3 = memoCorner(latticeColumn, latticeRow + s);
+                    int p4 = memoCorner(latticeColumn + s, latticeRow + s);
+                    int p5 = s == 1 ? cellCentre(latticeColumn, latticeRow) : memoCorner(latticeColumn + s / 2, latticeRow + s / 2);
+
+                    int index = y * ringWidth + x;
+                    estimates[index] = (p1 + p2 + p3 + p4 + p5) / 5;
+                    spreads[index] = Math.max(Math.max(Math.max(p1, p2), Math.max(p3, p4)), p5) -
+                            Math.min(Math.min(Math.min(p1, p2), Math.min(p3, p4)), p5);
+                }
+            }
+
+            for( int y = 0; y < height; y++ ) {
+                for( int x = 0; x < gridWidth; x++ ) {
+                    int index = (y + 1) * ringWidth + x + 1;
+                    int estimate = estimates[index];
+                    boolean refine = spreads[index] > threshold ||
+                            Math.abs(estimates[index - 1] - estimate) > threshold ||
+                            Math.abs(estimates[index + 1] - estimate) > threshold ||
+                            Math.abs(estimates[index - ringWidth] - estimate) > threshold ||
+                            Math.abs(estimates[index + ringWidth] - estimate) > threshold;
+
+                    if( refine && s > 1 ) {
+                        rates[offset + y * stride + x] = adaptiveCell((gridColumn + x) * s, (row + y) * s, s,
+                                threshold, true);
+                        pixelsRefined++;
+                    } else {
+                        rates[offset + y * stride + x] = estimate;
+                        samplesUsed += 5;
+                    }
+                }
+            }
+            pixelsAdaptive += (long) gridWidth * height;
+        } finally {
+            cornerMemo = null;
+        }
+    }
+
+    //
+    // The rate of a size x size block of lattice cells with its top left corner at latticeColumn, latticeRow.
+    // Unless split is set, a block whose corners and centre are within threshold of each other is averaged from
+    // those five samples without splitting it any further.
+    //
+    protected int adaptiveCell(int latticeColumn, int latticeRow, int size, int threshold, boolean split) {
+        if( size == 1 ) {
+            samplesUsed += 5;
+            return (memoCorner(latticeColumn, latticeRow) + memoCorner(latticeColumn + 1, latticeRow) +
+                    memoCorner(latticeColumn, latticeRow + 1) + memoCorner(latticeColumn + 1, latticeRow + 1) +
+                    cellCentre(latticeColumn, latticeRow)) / 5;
+        }
+
+        int half = size / 2;
+        if( !split ) {
+            int p1 = memoCorner(latticeColumn, latticeRow);
+            int p2 = memoCorner(latticeColumn + size, latticeRow);
+            int p3 = memoCorner(latticeColumn, latticeRow + size);
+            int p4 = memoCorner(latticeColumn + size, latticeRow + size);
+            int p5 = memoCorner(latticeColumn + half, latticeRow + half);
+            int spread = Math.max(Math.max(Math.max(p1, p2), Math.max(p3, p4)), p5) -
+                    Math.min(Math.min(Math.min(p1, p2), Math.min(p3, p4)), p5);
+            if( spread <= threshold ) {
+                samplesUsed += 5;
+                return (p1 + p2 + p3 + p4 + p5) / 5;
+            }
+        }
+
+        return (adaptiveCell(latticeColumn, latticeRow, half, threshold, false) +
+                adaptiveCell(latticeColumn + half, latticeRow, half, threshold, false) +
+                adaptiveCell(latticeColumn, latticeRow + half, half, threshold, false) +
+                adaptiveCell(latticeColumn + half, latticeRow + half, half, threshold, false)) / 4;
+    }
+
+    protected int memoCorner(int latticeColumn, int latticeRow) {
+        return latticeCorner(latticeColumn, latticeRow, gridUlX + ((double) latticeColumn * gridXStep),
+                latticeY(latticeRow));
+    }
+
+    protected int cellCentre(int latticeColumn, int latticeRow) {
+        double X = gridUlX + ((double) latticeColumn * gridXStep);
+        return calculatePoint(X + gridXStep / 2.0, centreY(latticeRow));
+    }
+
+    //
+    // Mariani-Silver subdivision of height rows of the current region, starting at row, into rates.
+    //
+    // The set is connected, so a rectangle whose border pixels all share one rate can be filled with that rate
+    // without calculating its interior. Rectangles with mixed borders are split in two along their longer side
+    // and each half treated the same way, reusing the pixels along the shared edge.
+    //
+    // A filament thinner than a pixel can cross a rectangle without touching any border pixel that lands on it.
+    // When guardSpacing is positive, the interior is also probed on a grid guardSpacing pixels apart before a
+    // fill, so any missed detail has to fit between the probes. Zero disables the probes.
+    //
+    public void calculateSubdivided(int row, int height, int[] rates, int guardSpacing) {
+        calculateSubdivided(row, height, rates, 0, gridWidth, guardSpacing);
+    }
+
+    //
+    // As above, but with the rates of row y of the region at rates[offset + y * stride], so they can go straight
+    // into a larger image
+    //
+    public void calculateSubdivided(int row, int height, int[] rates, int offset, int stride, int guardSpacing) {
+        for( int y = 0; y < height; y++ ) {
+            Arrays.fill(rates, offset + y * stride, offset + y * stride + gridWidth, -1);
+        }
+        subdivideOffset = offset;
+        subdivideStride = stride;
+
+        attachCornerMemo(newCornerMemo(gridWidth, height, gridAaLevel), row);
+
+        try {
+            subdivide(rates, row, 0, 0, gridWidth, height, guardSpacing);
+        } finally {
+            cornerMemo = null;
+        }
+    }
+
+    protected void subdivide(int[] rates, int row, int x0, int y0, int x1, int y1, int guardSpacing) {
+        int width = x1 - x0;
+        int height = y1 - y0;
+
+        if( width <= minSubdivision || height <= minSubdivision ) {
+            for( int y = y0; y < y1; y++ ) {
+                for( int x = x0; x < x1; x++ ) {
+                    subdividedPixel(rates, row, x, y);
+                }
+            }
+            return;
+        }
+
+        //
+        // Calculate the whole border, even after finding a mismatch, as the halves will need it anyway
+        //
+        int rate = subdividedPixel(rates, row, x0, y0);
+        boolean uniform = true;
+        for( int x = x0; x < x1; x++ ) {
+            uniform &= subdividedPixel(rates, row, x, y0) == rate;
+            uniform &= subdividedPixel(rates, row, x, y1 - 1) == rate;
+        }
+        for( int y = y0 + 1; y < y1 - 1; y++ ) {
+            uniform &= subdividedPixel(rates, row, x0, y) == rate;
+            uniform &= subdividedPixel(rates, row, x1 - 1, y) == rate;
+        }
+
+        if( uniform && guardSpacing > 0 ) {
+            for( int y = y0 + guardSpacing; y < y1 - 1 && uniform; y += guardSpacing ) {
+                for( int x = x0 + guardSpacing; x < x1 - 1 && uniform; x += guardSpacing ) {
+                    uniform = subdividedPixel(rates, row, x, y) == rate;
+                }
+            }
+        }
+
+        if( uniform ) {
+            for( int y = y0 + 1; y < y1 - 1; y++ ) {
+                int offset = subdivideOffset + y * subdivideStride;
+                for( int x = x0 + 1; x < x1 - 1; x++ ) {
+                    if( rates[offset + x] < 0 ) {
+                        rates[offset + x] = rate;
+                        pixelsFilled++;
+                    }
+                }
+            }
+        } else if( width >= height ) {
+            int xMid = (x0 + x1) / 2;
+            subdivide(rates, row, x0, y0, xMid + 1, y1, guardSpacing);
+            subdivide(rates, row, xMid, y0, x1, y1, guardSpacing);
+        } else {
+            int yMid = (y0 + y1) / 2;
+            subdivide(rates, row, x0, y0, x1, yMid + 1, guardSpacing);
+            subdivide(rates, row, x0, yMid, x1, y1, guardSpacing);
+        }
+    }
+
+    //
+    // Rate of the pixel at x, y within the region being subdivided, calculating it if that hasn't happened yet
+    //
+    protected int subdividedPixel(int[] rates, int row, int x, int y) {
+        int offset = subdivideOffset + y * subdivideStride + x;
+        if( rates[offset] < 0 ) {
+            rates[offset] = calculatePixel(gridColumn + x, row + y);
+        }
+        return rates[offset];
+    }
+
+    //
+    // Sample count points along the lattice row at Y, starting from the region's left edge plus xOffset
+    //
+    protected void sampleRow(double Y, double xOffset, int count, int[] out, int offset) {
+        int column = gridColumn * subdivisions;
+
+        if( kernel == Kernel.VECTOR ) {
+            if( rowScratch == null || rowScratch.length < count ) {
+                rowScratch = new double[count];
+            }
+            int interior = 0;
+            for( int i = 0; i < count; i++ ) {
+                double X = gridUlX + ((double) (column + i) * gridXStep);
+                rowScratch[i] = X + xOffset;
+                if( isInterior(rowScratch[i], Y) ) {
+                    out[offset + i] = maxIterations;
+                    interior++;
+                } else {
+                    out[offset + i] = -1;
+                }
+            }
+            pointsCalculated += count;
+            VectorKernel.escapeRow(rowScratch, Y, out, offset, count);
+
+            long rates = 0;
+            for( int i = 0; i < count; i++ ) {
+                rates += out[offset + i];
+            }
+            iterationsExecuted += rates - (long) interior * maxIterations;
+            return;
+        }
+
+        for( int i = 0; i < count; i++ ) {
+            double X = gridUlX + ((double) (column + i) * gridXStep);
+            out[offset + i] = calculatePoint(X + xOffset, Y);
+        }
+    }
+
+    protected int calculatePoint(double X, double Y, double xIncrement, double yIncrement, int iterations) {
+
+        //
+        // X and Y are now the Upper-Left corner of the pixel we are rendering
+        // For anti-aliasing level 0 this is all we render.
+        // At the lowest level, we subdivide this into 5 points and take the average
+        //
+        //    X,Y       X+x,Y
+        //
+        //       X+x/2,Y+y/2
+        //
+        //    X,Y+y     X+x,Y+y
+        //
+        // At higher levels we subdivide into quadrants and recurse
+        //
+        // Every sample is calculated here, so this is only used where pixels are rendered in isolation.
+        // Whole regions should use beginRegion() and calculateRow() to share samples between neighbours.
+        //
+
+        if( iterations == 0 ) {
+            samplesUsed++;
+            return calculatePoint(X, Y);
+        } else if (iterations == 1) {
+            samplesUsed += 5;
+            int p1 = calculatePoint(X, Y);
+            int p2 = calculatePoint(X + xIncrement, Y);
+            int p3 = calculatePoint(X, Y + yIncrement);
+            int p4 = calculatePoint(X + xIncrement, Y + yIncrement);
+            int p5 = calculatePoint( X + xIncrement / 2.0, Y + yIncrement / 2.0);
+
+            return (p1 + p2 + p3 + p4 + p5) / 5;
+        } else {
+            // Subdivide the space into 4 quadrants and recurse down
+            double xIncrementHalf = xIncrement / 2.0;
+            double X1 = X + xIncrementHalf;
+            double yIncrementHalf = yIncrement / 2.0;
+            double Y1 = Y + yIncrementHalf;
+
+            int p1 = calculatePoint( X, Y, xIncrementHalf, yIncrementHalf, iterations - 1);
+            int p2 = calculatePoint( X1, Y, xIncrementHalf, yIncrementHalf, iterations - 1);
+            int p3 = calculatePoint( X, Y1, xIncrementHalf, yIncrementHalf, iterations - 1);
+            int p4 = calculatePoint( X1, Y1, xIncrementHalf, yIncrementHalf, iterations - 1);
+
+            return (p1 + p2 + p3 + p4) / 4;
+        }
+    }
+
+    protected int calculatePoint(double X, double Y) {
+        pointsCalculated++;
+
+        if( kernel == Kernel.COMPLEX ) {
+            int rate = escapeTimeComplex(X, Y);
+            iterationsExecuted += rate;
+            return rate;
+        } else if( kernel == Kernel.PERTURBATION ) {
+            int rate = escapeTimePerturbed(X, Y);
+            iterationsExecuted += rate;
+            return rate;
+        } else if( kernel == Kernel.DOUBLE_DOUBLE ) {
+            int rate = escapeTimeDoubleDouble(X, Y);
+            iterationsExecuted += rate;
+            return rate;
+        }
+
+        //
+        // One branch per point picks the loop for the formula, each with the function written out in it
+        //
+        if( formula.type != Formula.Type.MANDELBROT ) {
+            return switch( formula.type ) {
+                case JULIA -> escapeTimeDetectCycles(X, Y, formula.juliaRe, formula.juliaIm);
+                case MULTIBROT -> escapeTimeMultibrot(X, Y, formula.power);
+                default -> escapeTimeBurningShip(X, Y);
+            };
+        }
+
+        if( isInterior(X, Y) ) {
+            return maxIterations;
+        }
+
+        return escapeTimeDetectCycles(X, Y);
+    }
+
+    //
+    // Points inside the main cardioid or the period-2 bulb never escape, so don't need iterating at all
+    //
+    protected boolean isInterior(double X, double Y) {
+        if( inMainCardioid(X, Y) ) {
+            cardioidPoints++;
+            return true;
+        }
+        if( inPeriod2Bulb(X, Y) ) {
+            bulbPoints++;
+            return true;
+        }
+        return false;
+    }
+
+    //
+    // Analytic test for the main cardioid: with q = (x - 1/4)^2 + y^2, points with q(q + x - 1/4) < y^2/4
+    // are inside
+    //
+    public static boolean inMainCardioid(double cRe, double cIm) {
+        double xq = cRe - 0.25;
+        double cIm2 = cIm * cIm;
+        double q = xq * xq + cIm2;
+        return q * (q + xq) < 0.25 * cIm2;
+    }
+
+    //
+    // The period-2 bulb is the disc of radius 1/4 centred on -1
+    //
+    public static boolean inPeriod2Bulb(double cRe, double cIm) {
+        double x1 = cRe + 1.0;
+        return x1 * x1 + cIm * cIm < 0.0625;
+    }
+
+    //
+    // escapeTime() with Brent-style cycle detection. The orbit is remembered at iterations 1, 2, 4, 8, ... and
+    // each later point compared against it; if the orbit returns to within periodTolerance it has settled into
+    // a cycle and will never escape. Counts are identical to escapeTime().
+    //
+    protected int escapeTimeDetectCycles(double cRe, double cIm) {
+        return escapeTimeDetectCycles(cRe, cIm, cRe, cIm);
+    }
+
+    //
+    // The same from z = zRe + zIm i rather than z = c, which is the Julia set of c when z is the point
+    //
+    protected int escapeTimeDetectCycles(double zRe, double zIm, double cRe, double cIm) {
+        double savedRe = zRe;
+        double savedIm = zIm;
+        int savedInterval = 1;
+        int sinceSaved = 0;
+
+        for( int i = 0; i < maxIterations; i++ ) {
+            double zRe2 = zRe * zRe;
+            double zIm2 = zIm * zIm;
+            double mag2 = zRe2 + zIm2;
+            if( mag2 >= divergenceBandLow ) {
+                if( mag2 >= divergenceBandHigh || Complex.ofCartesian(zRe, zIm).abs() >= divergenceCeiling ) {
+                    iterationsExecuted += i;
+                    return i;
+                }
+            }
+
+            double zReZIm = zRe * zIm;
+            zIm = (zReZIm + zReZIm) + cIm;
+            zRe = (zRe2 - zIm2) + cRe;
+
+            if( Math.abs(zRe - savedRe) < periodTolerance && Math.abs(zIm - savedIm) < periodTolerance ) {
+                periodicPoints++;
+                iterationsExecuted += i + 1;
+                return maxIterations;
+            }
+
+            if( ++sinceSaved == savedInterval ) {
+                savedRe = zRe;
+                savedIm = zIm;
+                sinceSaved = 0;
+                savedInterval <<= 1;
+            }
+        }
+
+        iterationsExecuted += maxIterations;
+        return maxIterations;
+    }
+
+    //
+    // escapeTimeDetectCycles() for z = z^power + c. The power is raised by repeated multiplication, which for the
+    // small powers worth rendering is quicker than going through polar form.
+    //
+    protected int escapeTimeMultibrot(double cRe, double cIm, int power) {
+        double zRe = cRe;
+        double zIm = cIm;
+        double savedRe = zRe;
+        double savedIm = zIm;
+        int savedInterval = 1;
+        int sinceSaved = 0;
+
+        for( int i = 0; i < maxIterations; i++ ) {
+            if( zRe * zRe + zIm * zIm >= divergenceCeiling * divergenceCeiling ) {
+                iterationsExecuted += i;
+                return i;
+            }
+
+            double pRe = zRe;
+            double pIm = zIm;
+            for( int k = 1; k < power; k++ ) {
+                double re = pRe * zRe - pIm * zIm;
+                pIm = pRe * zIm + pIm * zRe;
+                pRe = re;
+            }
+            zRe = pRe + cRe;
+            zIm = pIm + cIm;
+
+            if( Math.abs(zRe - savedRe) < periodTolerance && Math.abs(zIm - savedIm) < periodTolerance ) {
+                periodicPoints++;
+                iterationsExecuted += i + 1;
+                return maxIterations;
+            }
+
+            if( ++sinceSaved == savedInterval ) {
+                savedRe = zRe;
+                savedIm = zIm;
+                sinceSaved = 0;
+                savedInterval <<= 1;
+            }
+        }
+
+        iterationsExecuted += maxIterations;
+        return maxIterations;
+    }
+
+    //
+    // escapeTimeDetectCycles() for the burning ship, z = (|Re z| + |Im z| i)^2 + c. Squaring after taking the
+    // absolute values only changes the sign of the cross term.
+    //
+    protected int escapeTimeBurningShip(double cRe, double cIm) {
+        double zRe = cRe;
+        double zIm = cIm;
+        double savedRe = zRe;
+        double savedIm = zIm;
+        int savedInterval = 1;
+        int sinceSaved = 0;
+
+        for( int i = 0; i < maxIterations; i++ ) {
+            double zRe2 = zRe * zRe;
+            double zIm2 = zIm * zIm;
+            if( zRe2 + zIm2 >= divergenceCeiling * divergenceCeiling ) {
+                iterationsExecuted += i;
+                return i;
+            }
+
+            double zReZIm = Math.abs(zRe * zIm);
+            zIm = (zReZIm + zReZIm) + cIm;
+            zRe = (zRe2 - zIm2) + cRe;
+
+            if( Math.abs(zRe - savedRe) < periodTolerance && Math.abs(zIm - savedIm) < periodTolerance ) {
+                periodicPoints++;
+                iterationsExecuted += i + 1;
+                return maxIterations;
+            }
+
+            if( ++sinceSaved == savedInterval ) {
+                savedRe = zRe;
+                savedIm = zIm;
+                sinceSaved = 0;
+                savedInterval <<= 1;
+            }
+        }
+
+        iterationsExecuted += maxIterations;
+        return maxIterations;
+    }
+
+    //
+    // Number of iterations before z = z^2 + c leaves the divergence ceiling, or maxIterations if it never does.
+    // Works on the real and imaginary parts directly so nothing is allocated per point or per iteration.
+    //
+    public static int escapeTime(double cRe, double cIm) {
+        double zRe = cRe;
+        double zIm = cIm;
+
+        for( int i = 0; i < maxIterations; i++ ) {
+            double zRe2 = zRe * zRe;
+            double zIm2 = zIm * zIm;
+            double mag2 = zRe2 + zIm2;
+            if( mag2 >= divergenceBandLow ) {
+                if( mag2 >= divergenceBandHigh || Complex.ofCartesian(zRe, zIm).abs() >= divergenceCeiling ) {
+                    return i;
+                }
+            }
+
+            // Same operation order as Complex.multiply() followed by Complex.add()
+            double zReZIm = zRe * zIm;
+            zIm = (zReZIm + zReZIm) + cIm;
+            zRe = (zRe2 - zIm2) + cRe;
+        }
+
+        return maxIterations;
+    }
+
+    //
+    // Escape time of the point offset by dcRe, dcIm from the reference point, iterated as the difference dz
+    // from the reference orbit Z.
+    //
+    // The perturbed orbit goes wrong (a "glitch") once dz is no longer small compared to Z + dz, typically
+    // when the reference orbit passes close to zero. That is detected by |Z + dz| dropping below |dz|, and
+    // fixed by rebasing: dz becomes the full value Z + dz and iteration carries on from the start of the
+    // reference orbit, where Z is zero again. The same happens if the reference orbit escapes first.
+    //
+    protected int escapeTimePerturbed(double dcRe, double dcIm) {
+        double[] refRe = reference.zRe;
+        double[] refIm = reference.zIm;
+        int refEnd = reference.length - 1;
+
+        double dzRe = 0.0;
+        double dzIm = 0.0;
+        int m = 0;
+        boolean rebased = false;
+
+        //
+        // escapeTime() starts from z = c and counts that as iteration 0, the reference orbit starts from Z = 0
+        //
+        for( int i = 0; i < maxIterations; i++ ) {
+            double zRe = refRe[m];
+            double zIm = refIm[m];
+
+            double nextRe = 2.0 * (zRe * dzRe - zIm * dzIm) + (dzRe * dzRe - dzIm * dzIm) + dcRe;
+            double nextIm = 2.0 * (zRe * dzIm + zIm * dzRe) + 2.0 * dzRe * dzIm + dcIm;
+            dzRe = nextRe;
+            dzIm = nextIm;
+            m++;
+
+            double fullRe = refRe[m] + dzRe;
+            double fullIm = refIm[m] + dzIm;
+            double mag2 = fullRe * fullRe + fullIm * fullIm;
+            if( mag2 >= divergenceCeiling * divergenceCeiling ) {
+                if( rebased ) {
+                    rebasedPoints++;
+                }
+                return i;
+            }
+
+            if( mag2 < dzRe * dzRe + dzIm * dzIm || m == refEnd ) {
+                dzRe = fullRe;
+                dzIm = fullIm;
+                m = 0;
+                rebased = true;
+            }
+        }
+
+        if( rebased ) {
+            rebasedPoints++;
+        }
+        return maxIterations;
+    }
+
+    //
+    // Escape time of the point offset by dcRe, dcIm from the centre, iterated in double-double arithmetic.
+    //
+    // Each value is held as the unevaluated sum hi + lo of two doubles, lo being below half an ulp of hi,
+    // which gives 106 bits of significand. The sums use Knuth's two-sum and the products Math.fma() to find
+    // the rounding error of each operation, so nothing is allocated. The interior short-cuts are skipped, as
+    // at these depths the cardioid and bulb boundaries can't be placed accurately with doubles either.
+    //
+    protected int escapeTimeDoubleDouble(double dcRe, double dcIm) {
+        // c = centre + dc
+        double s = centreReHi + dcRe;
+        double v = s - centreReHi;
+        double e = (centreReHi - (s - v)) + (dcRe - v) + centreReLo;
+        double cReHi = s + e;
+        double cReLo = e - (cReHi - s);
+
+        s = centreImHi + dcIm;
+        v = s - centreImHi;
+        e = (centreImHi - (s - v)) + (dcIm - v) + centreImLo;
+        double cImHi = s + e;
+        double cImLo = e - (cImHi - s);
+
+        double zReHi = cReHi, zReLo = cReLo;
+        double zImHi = cImHi, zImLo = cImLo;
+
+        for( int i = 0; i < maxIterations; i++ ) {
+            // The low parts can't move |z| across the ceiling by enough to matter
+            if( zReHi * zReHi + zImHi * zImHi >= divergenceCeiling * divergenceCeiling ) {
+                return i;
+            }
+
+            // zRe^2, zIm^2 and zRe * zIm, each as hi + lo
+            double re2Hi = zReHi * zReHi;
+            double re2Lo = Math.fma(zReHi, zReHi, -re2Hi) + 2.0 * zReHi * zReLo;
+            double im2Hi = zImHi * zImHi;
+            double im2Lo = Math.fma(zImHi, zImHi, -im2Hi) + 2.0 * zImHi * zImLo;
+            double reImHi = zReHi * zImHi;
+            double reImLo = Math.fma(zReHi, zImHi, -reImHi) + (zReHi * zImLo + zReLo * zImHi);
+
+            // zRe' = zRe^2 - zIm^2 + cRe
+            s = re2Hi - im2Hi;
+            v = s - re2Hi;
+            e = (re2Hi - (s - v)) + (-im2Hi - v) + (re2Lo - im2Lo);
+            double tHi = s + e;
+            double tLo = e - (tHi - s);
+            s = tHi + cReHi;
+            v = s - tHi;
+            e = (tHi - (s - v)) + (cReHi - v) + (tLo + cReLo);
+            double nextReHi = s + e;
+            double nextReLo = e - (nextReHi - s);
+
+            // zIm' = 2 zRe zIm + cIm
+            s = 2.0 * reImHi + cImHi;
+            v = s - 2.0 * reImHi;
+            e = (2.0 * reImHi - (s - v)) + (cImHi - v) + (2.0 * reImLo + cImLo);
+            zImHi = s + e;
+            zImLo = e - (zImHi - s);
+
+            zReHi = nextReHi;
+            zReLo = nextReLo;
+        }
+
+        return maxIterations;
+    }
+
+    //
+    // Reference implementation of escapeTime() using commons-numbers Complex. Allocates on every iteration.
+    //
+    public static int escapeTimeComplex(double cRe, double cIm) {
+        Complex c = Complex.ofCartesian(cRe, cIm);
+        Complex z = c;
+
+        for( int i = 0; i < maxIterations; i++ ) {
+            if( z.abs() >= divergenceCeiling ) {
+                return i;
+            }
+
+            z = z.multiply( z ).add( c );
+        }
+
+        return maxIterations;
+    }
+
+    //
+    // Add this generator's counters to the totals in metrics
+    //
+    public void addStatsTo(RenderMetrics metrics) {
+        metrics.pointsCalculated.add(pointsCalculated);
+        metrics.samplesUsed.add(samplesUsed);
+        metrics.iterations.add(iterationsExecuted);
+        metrics.cardioidPoints.add(cardioidPoints);
+        metrics.bulbPoints.add(bulbPoints);
+        metrics.periodicPoints.add(periodicPoints);
+        metrics.rebasedPoints.add(rebasedPoints);
+        metrics.pixelsFilled.add(pixelsFilled);
+        metrics.pixelsAdaptive.add(pixelsAdaptive);
+        metrics.pixelsRefined.add(pixelsRefined);
+    }
+
+    //
+    // Write this generator's counters, for a worker to send back with a tile
+    //
+    public void writeStats(DataOutput out) throws IOException {
+        for( long counter : new long[] { pointsCalculated, samplesUsed, iterationsExecuted, cardioidPoints,
+                bulbPoints, periodicPoints, rebasedPoints, pixelsFilled, pixelsAdaptive, pixelsRefined } ) {
+            out.writeLong(counter);
+        }
+    }
+
+    //
+    // Set this generator's counters to those written by writeStats()
+    //
+    public void readStats(DataInput in) throws IOException {
+        pointsCalculated = in.readLong();
+        samplesUsed = in.readLong();
+        iterationsExecuted = in.readLong();
+        cardioidPoints = in.readLong();
+        bulbPoints = in.readLong();
+        periodicPoints = in.readLong();
+        rebasedPoints = in.readLong();
+        pixelsFilled = in.readLong();
+        pixelsAdaptive = in.readLong();
+        pixelsRefined = in.readLong();
+    }
+
+    public String getStats() {
+        return "pointsCalculated: [" + pointsCalculated + "] samplesUsed: [" + samplesUsed + "] iterations: [" + iterationsExecuted + "] pointsShared: ["
+                + (samplesUsed - pointsCalculated) + "] cardioidPoints: [" + cardioidPoints + "] bulbPoints: ["
+                + bulbPoints + "] periodicPoints: [" + periodicPoints + "] pixelsFilled: [" + pixelsFilled + "] pixelsRefined: [" + pixelsRefined + "] rebasedPoints: [" + rebasedPoints + "]";
+    }
+}
@@ -0,0 +1,140 @@
+package mandelbrot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+//
+// Bytes held off the Java heap, in direct memory or mapped from a file, and indexed by long so they can go past
+// the 2 GB a single ByteBuffer can hold. They are kept as chunks of a power of two bytes. A value aligned to its
+// own size never straddles two chunks, so values are read and written straight from the chunk they fall in.
+//
+// The garbage collector never scans the contents, and the heap only holds the chunk objects, so a buffer of
+// many gigabytes needs no more heap than a small one. Direct memory is limited by -XX:MaxDirectMemorySize,
+// which defaults to the maximum heap size. Mapped memory is only limited by the disk.
+//
+public class OffHeapBuffer {
+
+    static final int chunkShift = 30;
+    static final long chunkBytes = 1L << chunkShift;
+    private static final long chunkMask = chunkBytes - 1;
+
+    final long size;
+    private final ByteBuffer[] chunks;
+    private final IntBuffer[] ints;
+
+    private OffHeapBuffer(long size, ByteBuffer[] chunks, ByteOrder order) {
+        this.size = size;
+        this.chunks = chunks;
+        ints = new IntBuffer[chunks.length];
+        for( int i = 0; i < chunks.length; i++ ) {
+            chunks[i].order(order);
+            ints[i] = chunks[i].asIntBuffer();
+        }
+    }
+
+    //
+    // A buffer of size zeroed bytes in direct memory, in native byte order
+    //
+    static OffHeapBuffer allocate(long size) throws IOException {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+        try {
+            for( int i = 0; i < chunks.length; i++ ) {
+                chunks[i] = ByteBuffer.allocateDirect(chunkLength(size, i));
+            }
+        } catch (OutOfMemoryError ex) {
+            // Thrown when direct memory runs out, which leaves the heap untouched
+            throw new IOException("Not enough direct memory for [" + size + "] bytes. Raise " +
+                    "-XX:MaxDirectMemorySize or give a -canvas file to map instead", ex);
+        }
+        return new OffHeapBuffer(size, chunks, ByteOrder.nativeOrder());
+    }
+
+    //
+    // A buffer of size bytes mapped from channel starting at position, in the given byte order. Mapping
+    // read-write past the end of the file extends it.
+    //
+    static OffHeapBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size,
+                             ByteOrder order) throws IOException {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+        for( int i = 0; i < chunks.length; i++ ) {
+            chunks[i] = channel.map(mode, position + i * chunkBytes, chunkLength(size, i));
+        }
+        return new OffHeapBuffer(size, chunks, order);
+    }
+
+    private static int chunkCount(long size) {
+        return (int) ((size + chunkBytes - 1) >>> chunkShift);
+    }
+
+    private static int chunkLength(long size, int chunk) {
+        return (int) Math.min(chunkBytes, size - chunk * chunkBytes);
+    }
+
+    byte get(long index) {
+        return chunks[(int) (index >>> chunkShift)].get((int) (index & chunkMask));
+    }
+
+    void put(long index, byte value) {
+        chunks[(int) (index >>> chunkShift)].put((int) (index & chunkMask), value);
+    }
+
+    //
+    // The short at index, which must be even
+    //
+    short getShort(long index) {
+        return chunks[(int) (index >>> chunkShift)].getShort((int) (index & chunkMask));
+    }
+
+    void putShort(long index, short value) {
+        chunks[(int) (index >>> chunkShift)].putShort((int) (index & chunkMask), value);
+    }
+
+    //
+    // Read length ints starting at byte index, which must be a multiple of four, into ints[offset..]
+    //
+    void getInts(long index, int[] ints, int offset, int length) {
+        while( length > 0 ) {
+            int chunk = (int) (index >>> chunkShift);
+            int position = (int) (index & chunkMask);
+            int count = Math.min(length, (chunks[chunk].capacity() - position) / 4);
+            this.ints[chunk].get(position / 4, ints, offset, count);
+            index += count * 4L;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    //
+    // Write length ints from ints[offset..] starting at byte index, which must be a multiple of four
+    //
+    void putInts(long index, int[] ints, int offset, int length) {
+        while( length > 0 ) {
+            int chunk = (int) (index >>> chunkShift);
+            int position = (int) (index & chunkMask);
+            int count = Math.min(length, (chunks[chunk].capacity() - position) / 4);
+            this.ints[chunk].put(position / 4, ints, offset, count);
+            index += count * 4L;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    boolean isReadOnly() {
+        return chunks.length > 0 && chunks[0].isReadOnly();
+    }
+
+    //
+    // Write any changes to a mapped buffer out to its file
+    //
+    void force() {
+        for( ByteBuffer chunk : chunks ) {
+            if( chunk instanceof MappedByteBuffer mapped && !mapped.isReadOnly() ) {
+                mapped.force();
+            }
+        }
+    }
+}
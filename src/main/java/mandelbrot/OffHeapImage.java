@@ -0,0 +1,80 @@
+package mandelbrot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+//
+// An ARGB image held off the heap, for images too large for a BufferedImage, whose pixels are limited to an int
+// indexed array, or for the heap. The pixels are kept in direct memory, or in a scratch file mapped into memory
+// which lets the image be larger than memory too, and start out transparent.
+//
+// Tiles copy their pixels in with put() and the PNG writer reads them out a row at a time, so the heap only
+// ever holds a tile or a row of them however large the image is.
+//
+public class OffHeapImage implements Closeable {
+
+    final int width;
+    final int height;
+
+    private final FileChannel channel;
+    private final OffHeapBuffer pixels;
+
+    private OffHeapImage(int width, int height, FileChannel channel, OffHeapBuffer pixels) {
+        this.width = width;
+        this.height = height;
+        this.channel = channel;
+        this.pixels = pixels;
+    }
+
+    //
+    // An image of width x height in direct memory
+    //
+    static OffHeapImage allocate(int width, int height) throws IOException {
+        return new OffHeapImage(width, height, null, OffHeapBuffer.allocate(4L * width * height));
+    }
+
+    //
+    // An image of width x height in a new file at path, replacing any that is already there. The file is
+    // deleted when the image is closed.
+    //
+    static OffHeapImage map(Path path, int width, int height) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        try {
+            // Pixels are never written out in the file's byte order, so use the quicker native one
+            return new OffHeapImage(width, height, channel, OffHeapBuffer.map(channel, FileChannel.MapMode.READ_WRITE,
+                    0, 4L * width * height, ByteOrder.nativeOrder()));
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    //
+    // Store a block of pixels, width x height from x, y, with row j of the block at argb[offset + j * stride].
+    // Blocks that don't overlap may be stored from different threads at once.
+    //
+    void put(int x, int y, int width, int height, int[] argb, int offset, int stride) {
+        for( int j = 0; j < height; j++ ) {
+            pixels.putInts(4 * ((long) (y + j) * this.width + x), argb, offset + j * stride, width);
+        }
+    }
+
+    //
+    // Read row y into argb
+    //
+    void getRow(int y, int[] argb) {
+        pixels.getInts(4L * y * width, argb, 0, width);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if( channel != null ) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package mandelbrot;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+//
+// Writes a whole image as an 8 bit PNG, filtering and compressing bands of rows on several threads at once in
+// the way pigz does. Each band is deflated on its own, primed with the last 32K of filtered rows before it as
+// the dictionary so little is lost at the joins, and ended with a sync flush so the bands can be concatenated
+// into a single zlib stream. The Adler-32 checksums of the bands are combined for its trailer.
+//
+// The image is written as RGB unless a pixel is not opaque, as happens when a render stops at its deadline, in
+// which case it is written as RGBA so the unfinished parts stay transparent.
+//
+// Only a few bands per thread are in flight at once, and each reads its rows from the image one at a time, so
+// an off heap image of any size is written with little heap.
+//
+public class ParallelPngWriter {
+
+    //
+    // Filtered bytes per band. Smaller bands spread the work more evenly, larger ones compress better.
+    //
+    static final int bandBytes = 256 * 1024;
+
+    //
+    // Deflate looks back at most this far, so no more of the previous band is worth priming with
+    //
+    static final int dictionaryBytes = 32 * 1024;
+
+    //
+    // Bands in flight per thread
+    //
+    static final int bandsPerThread = 4;
+
+    //
+    // Where the ARGB pixels of each row come from
+    //
+    private interface Rows {
+        void read(int y, int[] argb);
+    }
+
+    private final Rows rows;
+    private final int width;
+    private final int height;
+    private final int bytesPerPixel;
+    private final int compressionLevel;
+    private long bytesWritten = 0;
+
+    private ParallelPngWriter(Rows rows, int width, int height, boolean alpha, int compressionLevel) {
+        this.rows = rows;
+        this.width = width;
+        this.height = height;
+        this.compressionLevel = compressionLevel;
+        bytesPerPixel = alpha ? 4 : 3;
+    }
+
+    private static ParallelPngWriter of(BufferedImage img, int compressionLevel) {
+        int width = img.getWidth();
+        int[] argb = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+        boolean opaque = true;
+        for( int i = 0; i < argb.length && opaque; i++ ) {
+            opaque = (argb[i] >>> 24) == 0xFF;
+        }
+        return new ParallelPngWriter((y, row) -> System.arraycopy(argb, y * width, row, 0, width), width,
+                img.getHeight(), !opaque && img.getColorModel().hasAlpha(), compressionLevel);
+    }
+
+    //
+    // Write img, which must be backed by an int array as the rendered images are, to out on threads threads.
+    // Returns the number of bytes written. out is left open.
+    //
+    static long write(BufferedImage img, OutputStream out, int compressionLevel, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return write(img, out, compressionLevel, pool);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    //
+    // As above, compressing on pool, which may be busy with other work as well
+    //
+    static long write(BufferedImage img, OutputStream out, int compressionLevel, ForkJoinPool pool)
+            throws IOException {
+        return of(img, compressionLevel).write(out, pool);
+    }
+
+    //
+    // Write canvas to out on pool, as RGBA if alpha is set and RGB otherwise. Returns the number of bytes
+    // written. out is left open.
+    //
+    static long write(OffHeapImage canvas, boolean alpha, OutputStream out, int compressionLevel, ForkJoinPool pool)
+            throws IOException {
+        return new ParallelPngWriter(canvas::getRow, canvas.width, canvas.height, alpha, compressionLevel)
+                .write(out, pool);
+    }
+
+    private long write(OutputStream out, ForkJoinPool pool) throws IOException {
+        int rowBytes = width * bytesPerPixel + 1;
+        int bandHeight = Math.max(1, bandBytes / rowBytes);
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(PngStreamWriter.signature);
+        bytesWritten += PngStreamWriter.signature.length;
+
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(ihdr);
+        header.writeInt(width);
+        header.writeInt(height);
+        header.writeByte(8);                            // Bit depth
+        header.writeByte(bytesPerPixel == 4 ? 6 : 2);   // Colour type - truecolour, with alpha or without
+        header.writeByte(0);                            // Compression method - deflate
+        header.writeByte(0);                            // Filter method - adaptive
+        header.writeByte(0);                            // No interlacing
+        writeChunk(data, "IHDR", ihdr.toByteArray(), ihdr.size());
+
+        // The zlib header, then each band's deflate blocks as they are finished, in order
+        byte[] zlibHeader = {0x78, (byte) switch( compressionLevel ) {
+            case 0, 1 -> 0x01;
+            case 2, 3, 4, 5 -> 0x5E;
+            case 7, 8, 9 -> 0xDA;
+            default -> 0x9C;
+        }};
+        writeChunk(data, "IDAT", zlibHeader, zlibHeader.length);
+
+        ArrayDeque<ForkJoinTask<Band>> inFlight = new ArrayDeque<>();
+        int window = bandsPerThread * pool.getParallelism();
+        int nextY = 0;
+        long adler = 1;
+        try {
+            while( nextY < height || !inFlight.isEmpty() ) {
+                while( nextY < height && inFlight.size() < window ) {
+                    inFlight.add(pool.submit(new Band(nextY, Math.min(nextY + bandHeight, height))));
+                    nextY += bandHeight;
+                }
+
+                Band band = inFlight.remove().join();
+                writeChunk(data, "IDAT", band.deflated, band.deflatedLength);
+                adler = combineAdler32(adler, band.adler, band.filteredLength);
+            }
+        } finally {
+            for( ForkJoinTask<Band> task : inFlight ) {
+                task.cancel(false);
+            }
+        }
+
+        byte[] trailer = {(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler};
+        writeChunk(data, "IDAT", trailer, trailer.length);
+
+        writeChunk(data, "IEND", new byte[0], 0);
+        data.flush();
+        return bytesWritten;
+    }
+
+    //
+    // The bytes of row y of the image in the PNG's pixel format, read through argb
+    //
+    private void rawRow(int y, int[] argb, byte[] row) {
+        rows.read(y, argb);
+        for( int x = 0, b = 0; x < width; x++ ) {
+            int pixel = argb[x];
+            row[b++] = (byte) (pixel >> 16);
+            row[b++] = (byte) (pixel >> 8);
+            row[b++] = (byte) pixel;
+            if( bytesPerPixel == 4 ) {
+                row[b++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    //
+    // Filters and deflates rows fromY inclusive to toY exclusive
+    //
+    private class Band extends RecursiveTask<Band> {
+
+        final int fromY;
+        final int toY;
+
+        byte[] deflated;
+        int deflatedLength;
+        long adler;
+        long filteredLength;
+
+        Band(int fromY, int toY) {
+            this.fromY = fromY;
+            this.toY = toY;
+        }
+
+        @Override
+        protected Band compute() {
+            int rowBytes = width * bytesPerPixel;
+            int[] argb = new int[width];
+            byte[] row = new byte[rowBytes];
+            byte[] previousRow = new byte[rowBytes];
+            byte[][] filtered = PngStreamWriter.filterBuffers(rowBytes);
+
+            Deflater deflater = new Deflater(compressionLevel, true);
+            Adler32 checksum = new Adler32();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bandBytes / 2);
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                // Filtering a row only needs the one above it, so filter the rows before the band again for the
+                // dictionary rather than wait for the band before to do it
+                int dictionaryRows = Math.min(fromY, (dictionaryBytes + rowBytes) / (rowBytes + 1));
+                if( dictionaryRows > 0 ) {
+                    byte[] dictionary = new byte[dictionaryRows * (rowBytes + 1)];
+                    int y = fromY - dictionaryRows;
+                    if( y > 0 ) {
+                        rawRow(y - 1, argb, previousRow);
+                    }
+                    for( int r = 0; y < fromY; y++, r++ ) {
+                        rawRow(y, argb, row);
+                        byte[] best = PngStreamWriter.filterRow(row, y == 0 ? null : previousRow, bytesPerPixel,
+                                filtered);
+                        System.arraycopy(best, 0, dictionary, r * (rowBytes + 1), rowBytes + 1);
+                        byte[] swap = previousRow;
+                        previousRow = row;
+                        row = swap;
+                    }
+                    int offset = Math.max(0, dictionary.length - dictionaryBytes);
+                    deflater.setDictionary(dictionary, offset, dictionary.length - offset);
+                }
+
+                for( int y = fromY; y < toY; y++ ) {
+                    rawRow(y, argb, row);
+                    byte[] best = PngStreamWriter.filterRow(row, y == 0 ? null : previousRow, bytesPerPixel,
+                            filtered);
+                    checksum.update(best);
+                    deflater.setInput(best);
+                    while( !deflater.needsInput() ) {
+                        out.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                    byte[] swap = previousRow;
+                    previousRow = row;
+                    row = swap;
+                }
+
+                if( toY == height ) {
+                    deflater.finish();
+                    while( !deflater.finished() ) {
+                        out.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    // A sync flush ends the band on a byte boundary without ending the stream
+                    int length;
+                    do {
+                        length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        out.write(buffer, 0, length);
+                    } while( length == buffer.length );
+                }
+            } finally {
+                deflater.end();
+            }
+
+            deflated = out.toByteArray();
+            deflatedLength = deflated.length;
+            adler = checksum.getValue();
+            filteredLength = (long) (toY - fromY) * (rowBytes + 1);
+            return this;
+        }
+    }
+
+    //
+    // The Adler-32 of two pieces of data one after the other, from the Adler-32 of each and the length of the
+    // second, as zlib's adler32_combine() works it out
+    //
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - remainder;
+        if( sum1 >= base ) {
+            sum1 -= base;
+        }
+        if( sum1 >= base ) {
+            sum1 -= base;
+        }
+        if( sum2 >= base << 1 ) {
+            sum2 -= base << 1;
+        }
+        if( sum2 >= base ) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+        bytesWritten += 12 + length;
+    }
+}
@@ -0,0 +1,252 @@
+package mandelbrot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+//
+// Writes an 8 bit RGB PNG a few rows at a time, so an image never needs to be held in memory as a whole.
+//
+// Rows must be supplied in order from the top. Each row is filtered as it arrives, fed through a single
+// Deflater, and the compressed stream written out as IDAT chunks whenever the chunk buffer fills.
+//
+public class PngStreamWriter implements Closeable {
+
+    static final byte[] signature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    // Size of the IDAT chunks written out
+    private static final int chunkSize = 64 * 1024;
+
+    private static final int filterNone = 0;
+    private static final int filterSub = 1;
+    private static final int filterUp = 2;
+    private static final int filterAverage = 3;
+    private static final int filterPaeth = 4;
+
+    private final WritableByteChannel channel;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+
+    // Raw bytes of the current and previous rows, and a filtered row for each filter type
+    private byte[] row;
+    private byte[] previousRow;
+    private final byte[][] filtered;
+
+    private final byte[] deflated = new byte[chunkSize];
+    private final ByteBuffer chunk = ByteBuffer.allocate(chunkSize);
+
+    private int rowsWritten = 0;
+    private long bytesWritten = 0;
+
+    public PngStreamWriter(WritableByteChannel channel, int width, int height, int compressionLevel) throws IOException {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.deflater = new Deflater(compressionLevel);
+
+        int rowBytes = width * 3;
+        row = new byte[rowBytes];
+        previousRow = new byte[rowBytes];
+        filtered = filterBuffers(rowBytes);
+
+        writeFully(ByteBuffer.wrap(signature));
+
+        ByteBuffer ihdr = ByteBuffer.allocate(13);
+        ihdr.putInt(width);
+        ihdr.putInt(height);
+        ihdr.put((byte) 8);     // Bit depth
+        ihdr.put((byte) 2);     // Colour type - truecolour
+        ihdr.put((byte) 0);     // Compression method - deflate
+        ihdr.put((byte) 0);     // Filter method - adaptive
+        ihdr.put((byte) 0);     // No interlacing
+        writeChunk("IHDR", ihdr.array(), 13);
+    }
+
+    //
+    // Write rows of ARGB pixels, width pixels per row, starting from argb[offset]. Alpha is discarded.
+    //
+    public void writeRows(int[] argb, int offset, int rows) throws IOException {
+        if( rowsWritten + rows > height ) {
+            throw new IllegalStateException("Writing " + rows + " rows after " + rowsWritten + " of " + height);
+        }
+
+        for( int r = 0; r < rows; r++ ) {
+            int start = offset + r * width;
+            for( int x = 0, b = 0; x < width; x++ ) {
+                int pixel = argb[start + x];
+                row[b++] = (byte) (pixel >> 16);
+                row[b++] = (byte) (pixel >> 8);
+                row[b++] = (byte) pixel;
+            }
+
+            byte[] best = filterRow(row, rowsWritten == 0 ? null : previousRow, 3, filtered);
+            deflater.setInput(best);
+            while( !deflater.needsInput() ) {
+                appendDeflated(deflater.deflate(deflated));
+            }
+
+            byte[] swap = previousRow;
+            previousRow = row;
+            row = swap;
+            rowsWritten++;
+        }
+    }
+
+    //
+    // Flush the remaining compressed data and write the end of the image, once every row has been written.
+    // Returns the size of the whole PNG in bytes.
+    //
+    public long finish() throws IOException {
+        if( rowsWritten != height ) {
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+        }
+
+        deflater.finish();
+        while( !deflater.finished() ) {
+            appendDeflated(deflater.deflate(deflated));
+        }
+        flushChunk();
+
+        writeChunk("IEND", new byte[0], 0);
+        return bytesWritten;
+    }
+
+    //
+    // Release the deflater. The channel is left open, and an image that wasn't finished is left without its end.
+    //
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    //
+    // Filter row with every filter type and return the one with the smallest sum of absolute differences, the
+    // heuristic recommended by the PNG specification. previousRow is null for the first row of the image, and
+    // filtered holds a buffer for each filter type, made by filterBuffers().
+    //
+    static byte[] filterRow(byte[] row, byte[] previousRow, int bytesPerPixel, byte[][] filtered) {
+        int rowBytes = row.length;
+        boolean first = previousRow == null;
+        long[] score = new long[5];
+
+        for( int i = 0; i < rowBytes; i++ ) {
+            int raw = row[i] & 0xff;
+            int left = (i >= bytesPerPixel) ? row[i - bytesPerPixel] & 0xff : 0;
+            int up = first ? 0 : previousRow[i] & 0xff;
+            int upLeft = (first || i < bytesPerPixel) ? 0 : previousRow[i - bytesPerPixel] & 0xff;
+
+            byte none = (byte) raw;
+            byte sub = (byte) (raw - left);
+            byte upF = (byte) (raw - up);
+            byte average = (byte) (raw - ((left + up) >>> 1));
+            byte paeth = (byte) (raw - paethPredictor(left, up, upLeft));
+
+            filtered[filterNone][i + 1] = none;
+            filtered[filterSub][i + 1] = sub;
+            filtered[filterUp][i + 1] = upF;
+            filtered[filterAverage][i + 1] = average;
+            filtered[filterPaeth][i + 1] = paeth;
+
+            score[filterNone] += Math.abs(none);
+            score[filterSub] += Math.abs(sub);
+            score[filterUp] += Math.abs(upF);
+            score[filterAverage] += Math.abs(average);
+            score[filterPaeth] += Math.abs(paeth);
+        }
+
+        int best = filterNone;
+        for( int f = 1; f < score.length; f++ ) {
+            if( score[f] < score[best] ) {
+                best = f;
+            }
+        }
+        return filtered[best];
+    }
+
+    //
+    // A buffer for each filter type, each starting with the filter type byte
+    //
+    static byte[][] filterBuffers(int rowBytes) {
+        byte[][] filtered = new byte[5][];
+        for( int f = 0; f < filtered.length; f++ ) {
+            filtered[f] = new byte[rowBytes + 1];
+            filtered[f][0] = (byte) f;
+        }
+        return filtered;
+    }
+
+    private static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if( pa <= pb && pa <= pc ) {
+            return a;
+        } else if( pb <= pc ) {
+            return b;
+        }
+        return c;
+    }
+
+    //
+    // Add the first length bytes of deflated to the current IDAT chunk, writing out chunks as they fill
+    //
+    private void appendDeflated(int length) throws IOException {
+        int written = 0;
+        while( written < length ) {
+            int toCopy = Math.min(length - written, chunk.remaining());
+            chunk.put(deflated, written, toCopy);
+            written += toCopy;
+            if( !chunk.hasRemaining() ) {
+                flushChunk();
+            }
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        if( chunk.position() > 0 ) {
+            writeChunk("IDAT", chunk.array(), chunk.position());
+            chunk.clear();
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(length);
+        header.put(typeBytes);
+        header.flip();
+
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        trailer.putInt((int) crc.getValue());
+        trailer.flip();
+
+        writeFully(header);
+        writeFully(ByteBuffer.wrap(data, 0, length));
+        writeFully(trailer);
+    }
+
+    //
+    // Bytes of PNG written to the channel so far
+    //
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while( buffer.hasRemaining() ) {
+            bytesWritten += channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package mandelbrot;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+//
+// Renders the viewport in passes of decreasing pixel spacing, so a coarse image is available long before the
+// full resolution one. The first pass calculates every passSteps[0]th pixel in each direction, and each later
+// pass only the pixels the passes before it have not already calculated. Every pixel is calculated exactly
+// once and anti-aliasing corners are shared across passes, so the total work is the same as a single pass.
+//
+public class ProgressiveRenderer {
+
+    //
+    // Pixel spacing of each pass. The last pass must be 1, and each spacing a multiple of the next.
+    //
+    static final int[] passSteps = {8, 4, 2, 1};
+
+    //
+    // Told about each pass as it completes
+    //
+    public interface PassListener {
+        //
+        // step is the pixel spacing of the pass just completed. Pixels not yet calculated are filled from the
+        // nearest calculated pixel above and to the left of them. The image is not used again by the renderer.
+        //
+        void passComplete(int step, BufferedImage preview);
+    }
+
+    private final Mandelbrot.RenderPlan plan;
+    private final int width;
+    private final int height;
+
+    //
+    // Escape rates of the whole image, -1 until calculated
+    //
+    private final int[] rates;
+
+    //
+    // Anti-aliasing corners of the whole image, shared by every pass and thread
+    //
+    private final int[] cornerMemo;
+
+    //
+    // Set when a band of the current pass is cut short by the deadline
+    //
+    private volatile boolean passStopped = false;
+
+    ProgressiveRenderer(MandelbrotArgs mArgs, IterationBuffer iterations, RenderMetrics metrics,
+                        RenderDeadline deadline) {
+        plan = new Mandelbrot.RenderPlan(mArgs, iterations, metrics, deadline);
+        width = mArgs.xResolution;
+        height = mArgs.yResolution;
+        rates = new int[width * height];
+        Arrays.fill(rates, -1);
+        cornerMemo = MandelbrotGenerator.newCornerMemo(width, height, mArgs.aaCycles);
+    }
+
+    //
+    // Render every pass, telling listener about each, and return the full resolution image. If the deadline
+    // expires first, the preview of the last pass completed is returned instead, or whatever the first pass
+    // managed if it didn't complete.
+    //
+    BufferedImage render(PassListener listener) {
+        MandelbrotArgs mArgs = plan.mArgs;
+
+        ForkJoinPool pool = new ForkJoinPool(mArgs.numThreads);
+        try {
+            for( int p = 0; p < passSteps.length; p++ ) {
+                int step = passSteps[p];
+                int coarserStep = p == 0 ? 0 : passSteps[p - 1];
+
+                long nanoStart = System.nanoTime();
+
+                List<Pass> bands = new ArrayList<>();
+                int bandHeight = Math.max(step, mArgs.tileSize - mArgs.tileSize % step);
+                for( int fromY = 0; fromY < height; fromY += bandHeight ) {
+                    bands.add(new Pass(step, coarserStep, fromY, Math.min(fromY + bandHeight, height)));
+                }
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(bands);
+                    }
+                });
+
+                if( passStopped ) {
+                    if( mArgs.debug ) {
+                        System.out.println("Stopped during the pass at [" + step + "] pixel spacing");
+                    }
+                    return fill(coarserStep == 0 ? step : coarserStep);
+                }
+
+                BufferedImage preview = fill(step);
+
+                if( mArgs.debug ) {
+                    System.out.println("Finished pass at [" + step + "] pixel spacing in [" +
+                            (System.nanoTime() - nanoStart) / 1000000 + "] ms");
+                }
+
+                if( listener != null ) {
+                    listener.passComplete(step, preview);
+                }
+                if( step == 1 ) {
+                    if( plan.iterations != null ) {
+                        plan.iterations.put(0, 0, width, height, rates);
+                    }
+                    return preview;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        throw new IllegalStateException("The last pass must calculate every pixel");
+    }
+
+    //
+    // An image of the rates calculated so far, each pixel taking the colour of the top left pixel of the
+    // step x step block it falls in, or blank if that hasn't been calculated
+    //
+    private BufferedImage fill(int step) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] argb = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+        for( int y = 0; y < height; y++ ) {
+            int sourceRow = (y - y % step) * width;
+            for( int x = 0; x < width; x++ ) {
+                int rate = rates[sourceRow + x - x % step];
+                argb[y * width + x] = rate < 0 ? 0 : plan.colours[rate];
+            }
+        }
+        return img;
+    }
+
+    //
+    // One pass over rows fromY to toY exclusive, calculating the pixels on a step grid that are not also on
+    // the coarserStep grid of the pass before
+    //
+    private class Pass extends RecursiveAction {
+
+        private final int step;
+        private final int coarserStep;
+        private final int fromY;
+        private final int toY;
+
+        Pass(int step, int coarserStep, int fromY, int toY) {
+            this.step = step;
+            this.coarserStep = coarserStep;
+            this.fromY = fromY;
+            this.toY = toY;
+        }
+
+        @Override
+        protected void compute() {
+            RenderMetrics.TileEvent event = RenderMetrics.beginTile();
+            long nanoStart = System.nanoTime();
+
+            MandelbrotGenerator gen = plan.newGenerator();
+            gen.beginRegion(plan.viewportUlX, plan.viewportUlY, plan.xIncrement, plan.yIncrement, 0, width,
+                    plan.mArgs.aaCycles);
+            gen.attachCornerMemo(cornerMemo, 0);
+
+            for( int y = fromY; y < toY; y += step ) {
+                if( plan.deadline.expired() ) {
+                    passStopped = true;
+                    plan.metrics.tileStopped();
+                    break;
+                }
+                boolean coarserRow = coarserStep > 0 && y % coarserStep == 0;
+                for( int x = 0; x < width; x += step ) {
+                    if( coarserRow && x % coarserStep == 0 ) {
+                        continue;
+                    }
+                    rates[y * width + x] = gen.calculatePixel(x, y);
+                }
+            }
+
+            plan.metrics.tileComplete(event, gen, 0, fromY, width, toY - fromY, System.nanoTime() - nanoStart, 0);
+        }
+    }
+}
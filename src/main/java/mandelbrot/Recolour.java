@@ -0,0 +1,131 @@
+package mandelbrot;
+
+import java.awt.*;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.Deflater;
+
+//
+// Colours the rates in an iteration buffer saved by Mandelbrot -ib and writes them out as a PNG, without
+// calculating anything again. Rows are read straight from the mapped file and streamed to the PNG a band at a
+// time, so this runs at the speed of the disk and the compressor.
+//
+public class Recolour {
+
+    //
+    // Rows read and written at a time
+    //
+    static final int bandHeight = 64;
+
+    public static void main(String[] args) {
+        String inputFile = null;
+        String outputFile = null;
+        String paletteName = "blue";
+        boolean debug = false;
+
+        for( int i = 0; i < args.length; i++ ) {
+            String switchName = args[i];
+            if( switchName.compareToIgnoreCase("-i") == 0 && i + 1 < args.length ) {
+                inputFile = args[++i];
+            } else if( switchName.compareToIgnoreCase("-o") == 0 && i + 1 < args.length ) {
+                outputFile = args[++i];
+            } else if( switchName.compareToIgnoreCase("-p") == 0 && i + 1 < args.length ) {
+                paletteName = args[++i];
+            } else if( switchName.compareToIgnoreCase("-v") == 0 ) {
+                debug = true;
+            } else {
+                inputFile = null;
+                break;
+            }
+        }
+
+        if( inputFile == null || outputFile == null ) {
+            System.err.println(
+                    """
+                            Usage: java mandelbrot.Recolour -i <iterationFile> -o <outputFileName> [-p <palette>] [-v]
+                            -i <iterationFile>\t\tIteration buffer saved by mandelbrot.Mandelbrot -ib
+                            -o <outputFileName>\t\tRelative path and file name of the output PNG
+                            -p <palette>\t\t\tblue (Default), grey, fire, or a file of RRGGBB hex colours, one per
+                            \t\t\t\t\tline, repeated across the escape rates
+                            -v\t\t\t\tPrint the header of the iteration buffer
+                            """);
+            return;
+        }
+
+        long startTimeNano = System.nanoTime();
+
+        try (IterationBuffer iterations = IterationBuffer.open(Path.of(inputFile));
+             FileOutputStream out = new FileOutputStream(outputFile);
+             PngStreamWriter png = new PngStreamWriter(out.getChannel(), iterations.width, iterations.height,
+                     Deflater.DEFAULT_COMPRESSION)) {
+
+            if( debug ) {
+                System.out.println("Iteration buffer [" + iterations.width + "x" + iterations.height + "] at AA [" +
+                        iterations.aaLevel + "] of viewport [" + iterations.minViewportX + " " +
+                        iterations.maxViewportY + " " + iterations.maxViewportX + " " + iterations.minViewportY +
+                        "] with [" + iterations.maxIterations + "] iterations");
+            }
+
+            int[] colours = palette(paletteName, iterations.maxIterations);
+
+            int[] band = new int[iterations.width * Math.min(bandHeight, iterations.height)];
+            for( int y = 0; y < iterations.height; y += bandHeight ) {
+                int rows = Math.min(bandHeight, iterations.height - y);
+                iterations.getRows(y, rows, band);
+                for( int offset = 0; offset < rows * iterations.width; offset++ ) {
+                    band[offset] = colours[band[offset]];
+                }
+                png.writeRows(band, 0, rows);
+            }
+            png.finish();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return;
+        }
+
+        long timeMs = (System.nanoTime() - startTimeNano) / 1000000;
+        System.out.println("Recoloured image in [" + timeMs + "] ms");
+    }
+
+    //
+    // Colours for each escape rate up to maxIterations, which is always black
+    //
+    static int[] palette(String name, int maxIterations) throws IOException {
+        int[] colours = new int[maxIterations + 1];
+
+        if( name.compareToIgnoreCase("blue") == 0 && maxIterations == 255 ) {
+            return Mandelbrot.buildColours();
+        } else if( name.compareToIgnoreCase("grey") == 0 ) {
+            for( int i = 0; i < maxIterations; i++ ) {
+                int level = i * 255 / maxIterations;
+                colours[i] = new Color(level, level, level).getRGB();
+            }
+        } else if( name.compareToIgnoreCase("fire") == 0 ) {
+            for( int i = 0; i < maxIterations; i++ ) {
+                int level = i * 765 / maxIterations;
+                colours[i] = new Color(Math.min(level, 255), Math.max(0, Math.min(level - 255, 255)),
+                        Math.max(0, level - 510)).getRGB();
+            }
+        } else if( name.compareToIgnoreCase("blue") == 0 ) {
+            for( int i = 0; i < maxIterations; i++ ) {
+                int level = i * 255 / maxIterations;
+                colours[i] = new Color(level / 2, level / 2, level).getRGB();
+            }
+        } else {
+            List<String> lines = Files.readAllLines(Path.of(name)).stream().map(String::strip)
+                    .filter(line -> !line.isEmpty()).toList();
+            if( lines.isEmpty() ) {
+                throw new IOException("Palette file [" + name + "] has no colours");
+            }
+            for( int i = 0; i < maxIterations; i++ ) {
+                colours[i] = 0xFF000000 | Integer.parseInt(lines.get(i % lines.size()), 16);
+            }
+        }
+
+        colours[maxIterations] = Color.BLACK.getRGB();
+        return colours;
+    }
+}
@@ -0,0 +1,72 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+//
+// High precision orbit of a single reference point, for perturbation rendering of deep zooms.
+//
+// Below a viewport width of around 1e-13 neighbouring pixels can no longer be told apart as doubles. Rather
+// than iterating every pixel in arbitrary precision, the orbit Z of one reference point C is calculated once
+// with BigDecimal, and each pixel c = C + dc is then iterated in double as its difference dz from that orbit:
+//
+//      dz' = 2 Z dz + dz^2 + dc
+//
+// The differences stay small enough for a double to hold accurately even when c itself cannot be.
+//
+public class ReferenceOrbit {
+
+    // Orbit of the reference point, starting from Z[0] = 0, Z[1] = C, as doubles
+    final double[] zRe;
+    final double[] zIm;
+
+    // Number of points held. The last either escaped or is iteration maxIterations + 1.
+    final int length;
+
+    private ReferenceOrbit(double[] zRe, double[] zIm, int length) {
+        this.zRe = zRe;
+        this.zIm = zIm;
+        this.length = length;
+    }
+
+    //
+    // Iterate the reference point cRe + i cIm at the given precision until it escapes, or for one more than
+    // maxIterations iterations if it doesn't
+    //
+    public static ReferenceOrbit calculate(BigDecimal cRe, BigDecimal cIm, int maxIterations, MathContext mc) {
+        double[] zRe = new double[maxIterations + 2];
+        double[] zIm = new double[maxIterations + 2];
+        BigDecimal four = BigDecimal.valueOf(4);
+
+        BigDecimal re = BigDecimal.ZERO;
+        BigDecimal im = BigDecimal.ZERO;
+        int n = 0;
+        while( true ) {
+            zRe[n] = re.doubleValue();
+            zIm[n] = im.doubleValue();
+            n++;
+
+            BigDecimal re2 = re.multiply(re, mc);
+            BigDecimal im2 = im.multiply(im, mc);
+            if( n == zRe.length || re2.add(im2, mc).compareTo(four) >= 0 ) {
+                break;
+            }
+
+            BigDecimal reIm = re.multiply(im, mc);
+            im = reIm.add(reIm, mc).add(cIm, mc);
+            re = re2.subtract(im2, mc).add(cRe, mc);
+        }
+
+        return new ReferenceOrbit(zRe, zIm, n);
+    }
+
+    //
+    // Decimal digits needed to tell apart points pixelSize apart, at coordinates up to magnitude in size,
+    // with some spare for the rounding error that builds up over the orbit
+    //
+    public static MathContext precisionFor(BigDecimal magnitude, double pixelSize) {
+        double magnitudeD = Math.max(1.0, Math.abs(magnitude.doubleValue()));
+        int digits = (int) Math.ceil(Math.log10(magnitudeD / Math.abs(pixelSize))) + 16;
+        return new MathContext(Math.max(digits, 32));
+    }
+}
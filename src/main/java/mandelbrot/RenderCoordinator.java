@@ -0,0 +1,364 @@
+package mandelbrot;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+//
+// Renders an image on RenderWorker processes, on this machine or others, instead of in this one. The image is
+// divided into tiles which are handed out one at a time to every connection the workers ask for, and the
+// escape rates that come back are coloured into the image here.
+//
+// A tile whose connection fails, or whose worker takes longer than -wt to answer, goes back on the queue for
+// another connection, and the failed connection is opened again. Once the queue is empty, connections with
+// nothing to do take a second copy of the tile that has been out longest, if it has been out for several times
+// the mean time per tile, so one slow worker can't hold up the end of the render. The first copy back is used.
+//
+public class RenderCoordinator {
+
+    //
+    // A tile out for this many times the mean time per tile is sent to a second connection
+    //
+    static final int slowTileFactor = 4;
+
+    //
+    // Times in a row a connection to a worker may fail before it is given up on
+    //
+    static final int connectAttempts = 3;
+
+    //
+    // How often, in milliseconds, an idle connection looks for slow tiles to take a copy of
+    //
+    static final long slowTileCheckMs = 50;
+
+    private final MandelbrotArgs mArgs;
+    private final IterationBuffer iterations;
+    private final RenderMetrics metrics;
+    private final RenderDeadline deadline;
+    private final int[] colours;
+    private final byte[] job;
+
+    private final BufferedImage img;
+    private final int[] argb;
+
+    //
+    // Every tile, and the ones waiting to be sent. Guarded by this, as are the counts below.
+    //
+    private final List<Tile> tiles = new ArrayList<>();
+    private final ArrayDeque<Tile> queue = new ArrayDeque<>();
+    private int remaining;
+    private int connections;
+    private int completed;
+    private long completedNanos;
+    private int resent;
+
+    //
+    // Tiles claimed and still being stored, and whether the image has been handed back so no more may be
+    //
+    private int storing;
+    private boolean closed;
+
+    RenderCoordinator(MandelbrotArgs mArgs, IterationBuffer iterations, RenderMetrics metrics,
+                      RenderDeadline deadline) throws IOException {
+        this.mArgs = mArgs;
+        this.iterations = iterations;
+        this.metrics = metrics;
+        this.deadline = deadline;
+        colours = Mandelbrot.buildColours();
+
+        ByteArrayOutputStream jobBytes = new ByteArrayOutputStream();
+        mArgs.writeJob(new DataOutputStream(jobBytes));
+        job = jobBytes.toByteArray();
+
+        img = new BufferedImage(mArgs.xResolution, mArgs.yResolution, BufferedImage.TYPE_INT_ARGB);
+        argb = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+        for( int ulY = 0; ulY < mArgs.yResolution; ulY += mArgs.tileSize ) {
+            for( int ulX = 0; ulX < mArgs.xResolution; ulX += mArgs.tileSize ) {
+                tiles.add(new Tile(ulX, ulY, Math.min(mArgs.tileSize, mArgs.xResolution - ulX),
+                        Math.min(mArgs.tileSize, mArgs.yResolution - ulY)));
+            }
+        }
+        queue.addAll(tiles);
+        remaining = tiles.size();
+    }
+
+    //
+    // Render the image on the workers, failing if every one of them is lost before it is finished. Tiles not
+    // back when the deadline expires are left blank.
+    //
+    BufferedImage render() throws IOException {
+        synchronized (this) {
+            for( InetSocketAddress worker : mArgs.workers ) {
+                startConnection(worker, true);
+            }
+
+            try {
+                while( remaining > 0 && connections > 0 && !deadline.expired() ) {
+                    wait(Math.min(deadline.remainingMillis(), slowTileCheckMs));
+                }
+
+                // Results still arriving must not change the image once it is handed back
+                closed = true;
+                while( storing > 0 ) {
+                    wait();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for workers", ex);
+            }
+
+            if( remaining > 0 && deadline.expired() ) {
+                metrics.tilesStopped.add(remaining);
+            } else if( remaining > 0 ) {
+                throw new IOException("Lost every worker with [" + remaining + "] of [" + tiles.size() +
+                        "] tiles still to calculate");
+            }
+
+            if( mArgs.debug ) {
+                System.out.println("Calculated [" + (tiles.size() - remaining) + "] of [" + tiles.size() +
+                        "] tiles on [" + mArgs.workers.size() + "] workers, sending [" + resent +
+                        "] again after failures or as backups for slow ones");
+            }
+        }
+        return img;
+    }
+
+    //
+    // Start a connection to worker. The first connection to each worker opens the rest of those it asks for.
+    //
+    private synchronized void startConnection(InetSocketAddress worker, boolean first) {
+        connections++;
+        Thread thread = new Thread(() -> connection(worker, first), "worker-" + name(worker) + "-" + connections);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //
+    // Send tiles to worker until there are none left, opening the connection again when it fails
+    //
+    private void connection(InetSocketAddress worker, boolean first) {
+        int failures = 0;
+        boolean opened = false;
+        try {
+            while( failures < connectAttempts ) {
+                Tile tile = null;
+                try (Socket socket = new Socket()) {
+                    int timeoutMs = mArgs.workerTimeout * 1000;
+                    socket.connect(new InetSocketAddress(worker.getHostString(), worker.getPort()), timeoutMs);
+                    socket.setSoTimeout(timeoutMs);
+                    socket.setTcpNoDelay(true);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+                    out.writeInt(RenderWorker.magic);
+                    out.writeInt(RenderWorker.version);
+                    out.writeInt(MandelbrotGenerator.maxIterations);
+                    out.writeInt(mArgs.tileSize);
+                    out.writeInt(job.length);
+                    out.write(job);
+                    out.flush();
+
+                    int wanted = in.readInt();
+                    if( wanted < 1 ) {
+                        // Trying again won't change the worker's mind
+                        System.err.println("Worker [" + name(worker) + "] refused the job: " + in.readUTF());
+                        return;
+                    }
+                    if( first && !opened ) {
+                        for( int i = 1; i < wanted; i++ ) {
+                            startConnection(worker, false);
+                        }
+                    }
+                    opened = true;
+
+                    int[] rates = new int[mArgs.tileSize * mArgs.tileSize];
+                    while( (tile = next()) != null ) {
+                        RenderMetrics.TileEvent event = RenderMetrics.beginTile();
+                        long nanoStart = System.nanoTime();
+
+                        out.writeInt(tile.ulX);
+                        out.writeInt(tile.ulY);
+                        out.writeInt(tile.width);
+                        out.writeInt(tile.height);
+                        out.flush();
+
+                        long computeNanos = in.readLong();
+                        MandelbrotGenerator stats = new MandelbrotGenerator(MandelbrotGenerator.Kernel.PRIMITIVE, null);
+                        stats.readStats(in);
+                        int length = in.readInt();
+                        if( length < 0 || length > 2 * rates.length + 1024 ) {
+                            throw new IOException("Tile of [" + length + "] bytes is too long");
+                        }
+                        byte[] deflated = new byte[length];
+                        in.readFully(deflated);
+                        RenderWorker.inflate(deflated, rates, tile.width * tile.height);
+
+                        if( complete(tile, System.nanoTime() - nanoStart) ) {
+                            try {
+                                long nanoStore = System.nanoTime();
+                                store(tile, rates);
+                                metrics.tileComplete(event, stats, tile.ulX, tile.ulY, tile.width, tile.height,
+                                        computeNanos, System.nanoTime() - nanoStore);
+                            } finally {
+                                finished();
+                            }
+                        }
+                        tile = null;
+                        failures = 0;
+                    }
+                    return;
+                } catch (IOException ex) {
+                    failures++;
+                    if( tile != null ) {
+                        failed(tile);
+                    }
+                    System.err.println("Connection to worker [" + name(worker) + "] failed" +
+                            (tile == null ? "" : " on tile at [" + tile.ulX + ", " + tile.ulY + "]") + ": " + ex);
+                }
+
+                // Give a restarting worker a moment before connecting again
+                Thread.sleep(100L * failures);
+            }
+            System.err.println("Giving up on a connection to worker [" + name(worker) + "] after [" + failures +
+                    "] failures");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                connections--;
+                notifyAll();
+            }
+        }
+    }
+
+    //
+    // The next tile for a connection to calculate, waiting for one to be put back or to become slow enough to
+    // take a copy of while other connections are still working. Null once every tile is finished.
+    //
+    private synchronized Tile next() throws InterruptedException {
+        while( remaining > 0 && !closed && !deadline.expired() ) {
+            Tile tile = queue.poll();
+            if( tile != null ) {
+                if( !tile.done ) {
+                    tile.copies++;
+                    tile.sentNanos = System.nanoTime();
+                    return tile;
+                }
+                continue;
+            }
+
+            Tile slow = slowest();
+            if( slow != null ) {
+                slow.copies++;
+                resent++;
+                return slow;
+            }
+            wait(slowTileCheckMs);
+        }
+        return null;
+    }
+
+    //
+    // The tile that has been out longest, if it has been out long enough to send a copy of and only one
+    // connection has it
+    //
+    private Tile slowest() {
+        if( completed == 0 ) {
+            return null;
+        }
+        long now = System.nanoTime();
+        long slowNanos = slowTileFactor * (completedNanos / completed);
+
+        Tile slowest = null;
+        for( Tile tile : tiles ) {
+            if( !tile.done && tile.copies == 1 && now - tile.sentNanos > slowNanos &&
+                    (slowest == null || tile.sentNanos < slowest.sentNanos) ) {
+                slowest = tile;
+            }
+        }
+        return slowest;
+    }
+
+    //
+    // Put tile back on the queue if no other connection has it
+    //
+    private synchronized void failed(Tile tile) {
+        tile.copies--;
+        if( !tile.done && tile.copies == 0 ) {
+            queue.addFirst(tile);
+            resent++;
+            notifyAll();
+        }
+    }
+
+    //
+    // Claim the result for tile, returning false if another copy of it has already come back or the image has
+    // been handed back. A claimed tile must be stored and then passed to finished().
+    //
+    private synchronized boolean complete(Tile tile, long nanos) {
+        tile.copies--;
+        if( tile.done || closed ) {
+            return false;
+        }
+        tile.done = true;
+        completed++;
+        completedNanos += nanos;
+        storing++;
+        return true;
+    }
+
+    private synchronized void finished() {
+        remaining--;
+        storing--;
+        notifyAll();
+    }
+
+    //
+    // Keep the rates of tile and colour them into the image. Tiles don't overlap, so no locking is needed.
+    //
+    private void store(Tile tile, int[] rates) {
+        if( iterations != null ) {
+            iterations.put(tile.ulX, tile.ulY, tile.width, tile.height, rates);
+        }
+        for( int y = 0; y < tile.height; y++ ) {
+            int offset = (tile.ulY + y) * mArgs.xResolution + tile.ulX;
+            for( int x = 0; x < tile.width; x++ ) {
+                argb[offset + x] = colours[rates[y * tile.width + x]];
+            }
+        }
+    }
+
+    private static String name(InetSocketAddress worker) {
+        return worker.getHostString() + ":" + worker.getPort();
+    }
+
+    private static class Tile {
+        final int ulX;
+        final int ulY;
+        final int width;
+        final int height;
+
+        // Guarded by the coordinator
+        boolean done;
+        int copies;
+        long sentNanos;
+
+        Tile(int ulX, int ulY, int width, int height) {
+            this.ulX = ulX;
+            this.ulY = ulY;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package mandelbrot;
+
+//
+// When a render should stop: at a wall-clock deadline, when cancelled, or never. Renderers check it between
+// rows and tiles, so a stopped render finishes within a row's work of expiring and leaves whatever it hadn't
+// calculated blank, rather than being abandoned with nothing to show for it. Blank is transparent in images
+// written with an alpha channel, and black in those streamed without one.
+//
+public class RenderDeadline {
+
+    //
+    // A deadline that never expires, for renders that must be complete
+    //
+    static final RenderDeadline none = new RenderDeadline(0, null);
+
+    //
+    // System.nanoTime() at the deadline, or zero for none
+    //
+    private final long deadlineNanos;
+
+    //
+    // A deadline that stops this one as well when it expires, or null
+    //
+    private final RenderDeadline parent;
+
+    private volatile boolean cancelled = false;
+
+    private RenderDeadline(long deadlineNanos, RenderDeadline parent) {
+        this.deadlineNanos = deadlineNanos;
+        this.parent = parent;
+    }
+
+    //
+    // A deadline seconds from now, or one that only expires when cancelled if seconds is zero
+    //
+    static RenderDeadline after(double seconds) {
+        return after(seconds, null);
+    }
+
+    //
+    // A deadline seconds from now, or never if seconds is zero, that also expires when this one does. A batch
+    // gives each of its jobs one of these, so stopping the batch stops whichever jobs are running.
+    //
+    RenderDeadline within(double seconds) {
+        return after(seconds, this);
+    }
+
+    private static RenderDeadline after(double seconds, RenderDeadline parent) {
+        if( seconds <= 0 ) {
+            return new RenderDeadline(0, parent);
+        }
+        // Zero means no deadline, so avoid it on the off chance the clock lands on it
+        return new RenderDeadline((System.nanoTime() + (long) (seconds * 1e9)) | 1, parent);
+    }
+
+    //
+    // Stop the render at the next check
+    //
+    void cancel() {
+        if( this != none ) {
+            cancelled = true;
+        }
+    }
+
+    boolean expired() {
+        return cancelled || (deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0) ||
+                (parent != null && parent.expired());
+    }
+
+    //
+    // Milliseconds until the deadline, at least 1, or Long.MAX_VALUE if there isn't one
+    //
+    long remainingMillis() {
+        long remaining = deadlineNanos == 0 ? Long.MAX_VALUE :
+                Math.max(1, (deadlineNanos - System.nanoTime()) / 1000000);
+        return parent == null ? remaining : Math.min(remaining, parent.remainingMillis());
+    }
+}
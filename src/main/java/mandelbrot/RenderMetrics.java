@@ -0,0 +1,311 @@
+package mandelbrot;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+//
+// Counters and timings for one render, shared by every worker.
+//
+// Generators count into plain fields of their own while they work, and each tile adds its totals here when it
+// finishes, so the hot loops never touch shared state. The counters here are striped LongAdders, so tiles
+// finishing at the same time on different workers don't contend either.
+//
+// At the end of a run the totals can be written out as JSON. While it runs, each tile, encode and whole render
+// is also recorded as a JFR event, for when the process is started with -XX:StartFlightRecording.
+//
+public class RenderMetrics {
+
+    final LongAdder tiles = new LongAdder();
+    final LongAdder tileNanos = new LongAdder();
+    final LongAccumulator minTileNanos = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    final LongAccumulator maxTileNanos = new LongAccumulator(Math::max, 0);
+
+    //
+    // Tiles, bands or frames cut short or skipped because the render was stopped
+    //
+    final LongAdder tilesStopped = new LongAdder();
+
+    //
+    // Tiles read back from the journal of an earlier run rather than calculated
+    //
+    final LongAdder tilesResumed = new LongAdder();
+
+    final LongAdder pointsCalculated = new LongAdder();
+    final LongAdder samplesUsed = new LongAdder();
+    final LongAdder iterations = new LongAdder();
+    final LongAdder cardioidPoints = new LongAdder();
+    final LongAdder bulbPoints = new LongAdder();
+    final LongAdder periodicPoints = new LongAdder();
+    final LongAdder rebasedPoints = new LongAdder();
+    final LongAdder pixelsFilled = new LongAdder();
+    final LongAdder pixelsAdaptive = new LongAdder();
+    final LongAdder pixelsRefined = new LongAdder();
+
+    // Pixels copied from their reflection in the real axis rather than calculated
+    final LongAdder pixelsMirrored = new LongAdder();
+
+    final LongAdder imageSetNanos = new LongAdder();
+    final LongAdder encodeNanos = new LongAdder();
+    final LongAdder encodedBytes = new LongAdder();
+
+    //
+    // Compute time of each worker thread, by thread name
+    //
+    final Map<String, LongAdder> workerNanos = new ConcurrentHashMap<>();
+
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+    private final RenderEvent renderEvent = new RenderEvent();
+
+    RenderMetrics() {
+        renderEvent.begin();
+    }
+
+    //
+    // A JFR event for a tile starting now, to pass to tileComplete() when it finishes
+    //
+    static TileEvent beginTile() {
+        TileEvent event = new TileEvent();
+        event.begin();
+        return event;
+    }
+
+    //
+    // Record a finished tile of width x height pixels at ulX, ulY, calculated by gen in computeNanos and
+    // coloured into the image in setNanos
+    //
+    void tileComplete(TileEvent event, MandelbrotGenerator gen, int ulX, int ulY, int width, int height,
+                      long computeNanos, long setNanos) {
+        tiles.increment();
+        tileNanos.add(computeNanos);
+        minTileNanos.accumulate(computeNanos);
+        maxTileNanos.accumulate(computeNanos);
+        imageSetNanos.add(setNanos);
+        workerNanos.computeIfAbsent(Thread.currentThread().getName(), name -> new LongAdder()).add(computeNanos);
+        gen.addStatsTo(this);
+
+        event.end();
+        if( event.shouldCommit() ) {
+            event.ulX = ulX;
+            event.ulY = ulY;
+            event.width = width;
+            event.height = height;
+            event.computeTime = computeNanos;
+            event.pointsCalculated = gen.pointsCalculated;
+            event.samplesUsed = gen.samplesUsed;
+            event.iterations = gen.iterationsExecuted;
+            event.commit();
+        }
+    }
+
+    //
+    // Record that a tile was cut short or skipped because the render was stopped
+    //
+    void tileStopped() {
+        tilesStopped.increment();
+    }
+
+    //
+    // Record that a tile was read back from the journal
+    //
+    void tileResumed() {
+        tilesResumed.increment();
+    }
+
+    //
+    // A JFR event for encoding starting now, to pass to encoded() when it finishes
+    //
+    static EncodeEvent beginEncode() {
+        EncodeEvent event = new EncodeEvent();
+        event.begin();
+        return event;
+    }
+
+    //
+    // Record bytes of output encoded in nanos, finished just now
+    //
+    void encoded(EncodeEvent event, long nanos, long bytes) {
+        encodeNanos.add(nanos);
+        encodedBytes.add(bytes);
+
+        event.end();
+        if( event.shouldCommit() ) {
+            event.encodeTime = nanos;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    //
+    // Mark the end of the render described by mArgs
+    //
+    void finish(MandelbrotArgs mArgs) {
+        endNanos = System.nanoTime();
+
+        RenderEvent event = renderEvent;
+        event.end();
+        if( event.shouldCommit() ) {
+            event.width = mArgs.xResolution;
+            event.height = mArgs.yResolution;
+            event.aaLevel = mArgs.aaCycles;
+            event.threads = mArgs.numThreads;
+            event.renderTime = endNanos - startNanos;
+            event.pointsCalculated = pointsCalculated.sum();
+            event.iterations = iterations.sum();
+            event.commit();
+        }
+    }
+
+    //
+    // Print how much of the image adaptive anti-aliasing supersampled, if it was used
+    //
+    void reportAdaptive() {
+        long adaptive = pixelsAdaptive.sum();
+        if( adaptive > 0 ) {
+            long refined = pixelsRefined.sum();
+            System.out.println("Adaptive anti-aliasing refined [" + refined + "] of [" + adaptive + "] pixels (" +
+                    String.format("%.1f", 100.0 * refined / adaptive) + "%)");
+        }
+    }
+
+    //
+    // Print how much of the image was left out, if the render was stopped before it finished
+    //
+    void reportStopped() {
+        long stopped = tilesStopped.sum();
+        if( stopped > 0 ) {
+            System.out.println("Render stopped before it finished, [" + stopped + "] tiles are incomplete");
+        }
+    }
+
+    //
+    // The totals as a JSON object. Times are in milliseconds.
+    //
+    String toJson(MandelbrotArgs mArgs) {
+        long points = pointsCalculated.sum();
+        long samples = samplesUsed.sum();
+        long tileCount = tiles.sum();
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"width\": ").append(mArgs.xResolution).append(",\n");
+        json.append("  \"height\": ").append(mArgs.yResolution).append(",\n");
+        json.append("  \"aaLevel\": ").append(mArgs.aaCycles).append(",\n");
+        json.append("  \"threads\": ").append(mArgs.numThreads).append(",\n");
+        json.append("  \"renderMs\": ").append(millis((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos)).append(",\n");
+        json.append("  \"tiles\": {\n");
+        json.append("    \"count\": ").append(tileCount).append(",\n");
+        json.append("    \"computeMs\": ").append(millis(tileNanos.sum())).append(",\n");
+        json.append("    \"minMs\": ").append(millis(tileCount == 0 ? 0 : minTileNanos.get())).append(",\n");
+        json.append("    \"meanMs\": ").append(millis(tileCount == 0 ? 0 : tileNanos.sum() / tileCount)).append(",\n");
+        json.append("    \"maxMs\": ").append(millis(maxTileNanos.get())).append(",\n");
+        json.append("    \"stopped\": ").append(tilesStopped.sum()).append(",\n");
+        json.append("    \"resumed\": ").append(tilesResumed.sum()).append("\n");
+        json.append("  },\n");
+        json.append("  \"workers\": {");
+        String separator = "\n";
+        for( Map.Entry<String, LongAdder> worker : new TreeMap<>(workerNanos).entrySet() ) {
+            json.append(separator).append("    \"").append(worker.getKey().replace("\"", "\\\"")).append("\": ")
+                    .append(millis(worker.getValue().sum()));
+            separator = ",\n";
+        }
+        json.append(workerNanos.isEmpty() ? "},\n" : "\n  },\n");
+        json.append("  \"points\": {\n");
+        json.append("    \"calculated\": ").append(points).append(",\n");
+        json.append("    \"samplesUsed\": ").append(samples).append(",\n");
+        json.append("    \"reused\": ").append(samples - points).append(",\n");
+        json.append("    \"cacheHitRate\": ").append(String.format(Locale.ROOT, "%.4f", samples == 0 ? 0.0 : (double) (samples - points) / samples)).append(",\n");
+        json.append("    \"iterations\": ").append(iterations.sum()).append(",\n");
+        json.append("    \"cardioid\": ").append(cardioidPoints.sum()).append(",\n");
+        json.append("    \"bulb\": ").append(bulbPoints.sum()).append(",\n");
+        json.append("    \"periodic\": ").append(periodicPoints.sum()).append(",\n");
+        json.append("    \"rebased\": ").append(rebasedPoints.sum()).append("\n");
+        json.append("  },\n");
+        json.append("  \"pixels\": {\n");
+        json.append("    \"filled\": ").append(pixelsFilled.sum()).append(",\n");
+        json.append("    \"adaptive\": ").append(pixelsAdaptive.sum()).append(",\n");
+        json.append("    \"refined\": ").append(pixelsRefined.sum()).append(",\n");
+        json.append("    \"mirrored\": ").append(pixelsMirrored.sum()).append("\n");
+        json.append("  },\n");
+        json.append("  \"imageSetMs\": ").append(millis(imageSetNanos.sum())).append(",\n");
+        json.append("  \"encodeMs\": ").append(millis(encodeNanos.sum())).append(",\n");
+        json.append("  \"encodedBytes\": ").append(encodedBytes.sum()).append("\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    @Name("mandelbrot.Tile")
+    @Label("Tile")
+    @Category("Mandelbrot")
+    @Description("One tile of the image calculated")
+    static class TileEvent extends Event {
+        @Label("Upper Left X")
+        int ulX;
+        @Label("Upper Left Y")
+        int ulY;
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("Compute Time")
+        @Timespan
+        long computeTime;
+        @Label("Points Calculated")
+        long pointsCalculated;
+        @Label("Samples Used")
+        long samplesUsed;
+        @Label("Iterations")
+        long iterations;
+    }
+
+    @Name("mandelbrot.Encode")
+    @Label("Encode")
+    @Category("Mandelbrot")
+    @Description("Image data compressed and written out")
+    static class EncodeEvent extends Event {
+        @Label("Encode Time")
+        @Timespan
+        long encodeTime;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("mandelbrot.Render")
+    @Label("Render")
+    @Category("Mandelbrot")
+    @Description("A whole image rendered")
+    static class RenderEvent extends Event {
+        @Label("Width")
+        int width;
+        @Label("Height")
+        int height;
+        @Label("AA Level")
+        int aaLevel;
+        @Label("Threads")
+        int threads;
+        @Label("Render Time")
+        @Timespan
+        long renderTime;
+        @Label("Points Calculated")
+        long pointsCalculated;
+        @Label("Iterations")
+        long iterations;
+    }
+}
@@ -0,0 +1,262 @@
+package mandelbrot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//
+// Calculates tiles for a RenderCoordinator, usually in another process or on another machine. Started with
+// --worker <port>, it serves each connection on a thread of its own until the coordinator closes it, so it
+// calculates as many tiles at once as the coordinator has connections open to it. It asks for -t of them.
+//
+// The protocol is big endian, as written by DataOutputStream. A connection starts with the coordinator sending
+//
+//     int    magic, "MBDW"
+//     int    version, 3
+//     int    maxIterations
+//     int    tile size, the widest and tallest tile that will be sent
+//     int    length of the job, then the job as written by MandelbrotArgs.writeJob()
+//
+// and the worker replying with the number of connections it would like, or zero followed by a UTF string
+// saying why it can't take the job. The coordinator then sends tiles one at a time, each as
+//
+//     int    ulX, ulY, width, height
+//
+// and the worker replies to each with
+//
+//     long   compute time in nanoseconds
+//     10 x   long generator counters, as written by MandelbrotGenerator.writeStats()
+//     int    length of the rates, then the rates of the tile a row at a time from the top left, one byte each
+//            while maxIterations fits, or two otherwise, deflated
+//
+public class RenderWorker {
+
+    static final int magic = 0x4D42_4457;
+    static final int version = 3;
+
+    //
+    // Longest job accepted, in bytes. Even very deep zooms need only a few hundred digits per viewport bound.
+    //
+    static final int maxJobLength = 1 << 20;
+
+    //
+    // Largest tile size accepted. Each connection holds the rates of a whole tile, so this bounds its memory.
+    //
+    static final int maxTileSize = 1024;
+
+    private final MandelbrotArgs mArgs;
+
+    //
+    // The plan of the last job, shared by every connection working on it. A plan for a deep zoom holds a
+    // reference orbit that is costly to calculate.
+    //
+    private byte[] lastJob;
+    private Mandelbrot.RenderPlan lastPlan;
+
+    RenderWorker(MandelbrotArgs mArgs) {
+        this.mArgs = mArgs;
+    }
+
+    //
+    // Accept connections until the process is killed
+    //
+    void serve() throws IOException {
+        try (ServerSocket server = new ServerSocket(mArgs.workerPort)) {
+            System.out.println("Worker listening on port [" + server.getLocalPort() + "] for up to [" +
+                    mArgs.numThreads + "] tiles at once");
+            while( true ) {
+                Socket socket = server.accept();
+                Thread session = new Thread(() -> session(socket), "session-" + socket.getRemoteSocketAddress());
+                session.setDaemon(true);
+                session.start();
+            }
+        }
+    }
+
+    //
+    // Calculate tiles for one connection until it is closed
+    //
+    private void session(Socket socket) {
+        long tiles = 0;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            String refusal = null;
+            if( in.readInt() != magic ) {
+                throw new IOException("Not a render coordinator");
+            }
+            int coordinatorVersion = in.readInt();
+            int coordinatorMaxIterations = in.readInt();
+            int tileSize = in.readInt();
+            int jobLength = in.readInt();
+            if( jobLength < 0 || jobLength > maxJobLength ) {
+                throw new IOException("Job of [" + jobLength + "] bytes is too long");
+            }
+            byte[] job = new byte[jobLength];
+            in.readFully(job);
+
+            Mandelbrot.RenderPlan plan = null;
+            if( coordinatorVersion != version ) {
+                refusal = "Worker speaks version [" + version + "], not [" + coordinatorVersion + "]";
+            } else if( coordinatorMaxIterations != MandelbrotGenerator.maxIterations ) {
+                refusal = "Worker iterates to [" + MandelbrotGenerator.maxIterations + "], not [" +
+                        coordinatorMaxIterations + "]";
+            } else if( tileSize < 1 || tileSize > maxTileSize ) {
+                refusal = "Worker takes tiles of up to [" + maxTileSize + "] pixels square, not [" + tileSize + "]";
+            } else {
+                plan = planFor(job);
+            }
+
+            if( refusal != null ) {
+                out.writeInt(0);
+                out.writeUTF(refusal);
+                out.flush();
+                return;
+            }
+            out.writeInt(mArgs.numThreads);
+            out.flush();
+
+            int[] rates = new int[0];
+            while( true ) {
+                int ulX;
+                try {
+                    ulX = in.readInt();
+                } catch ( EOFException x ) {
+                    // The coordinator has no more tiles for this connection
+                    break;
+                }
+                int ulY = in.readInt();
+                int width = in.readInt();
+                int height = in.readInt();
+                if( width < 1 || height < 1 || ulX < 0 || ulY < 0 || width > plan.mArgs.xResolution - ulX ||
+                        height > plan.mArgs.yResolution - ulY ) {
+                    throw new IOException("Tile [" + ulX + ", " + ulY + ", " + width + "x" + height +
+                            "] is outside the image");
+                } else if( width > tileSize || height > tileSize ) {
+                    throw new IOException("Tile [" + ulX + ", " + ulY + ", " + width + "x" + height +
+                            "] is larger than the tile size [" + tileSize + "]");
+                }
+
+                long nanoStart = System.nanoTime();
+                if( rates.length < width * height ) {
+                    rates = new int[width * height];
+                }
+                MandelbrotGenerator gen = plan.newGenerator();
+                plan.calculateTile(gen, ulX, ulY, width, height, rates);
+                byte[] deflated = deflate(rates, width * height);
+
+                out.writeLong(System.nanoTime() - nanoStart);
+                gen.writeStats(out);
+                out.writeInt(deflated.length);
+                out.write(deflated);
+                out.flush();
+                tiles++;
+            }
+        } catch (IOException ex) {
+            System.err.println("Connection from [" + socket.getRemoteSocketAddress() + "] failed: " + ex);
+        }
+
+        if( mArgs.debug ) {
+            System.out.println("Calculated [" + tiles + "] tiles for [" + socket.getRemoteSocketAddress() + "]");
+        }
+    }
+
+    //
+    // The plan for job, calculated once for all the connections working on it
+    //
+    private synchronized Mandelbrot.RenderPlan planFor(byte[] job) throws IOException {
+        if( !Arrays.equals(job, lastJob) ) {
+            MandelbrotArgs jobArgs = MandelbrotArgs.readJob(new DataInputStream(new ByteArrayInputStream(job)));
+            jobArgs.debug = mArgs.debug;
+            if( mArgs.debug ) {
+                System.out.println("New job of [" + jobArgs.xResolution + "x" + jobArgs.yResolution + "] at AA [" +
+                        jobArgs.aaCycles + "] over [" + jobArgs.minViewportXExact + ", " + jobArgs.maxViewportYExact +
+                        "] to [" + jobArgs.maxViewportXExact + ", " + jobArgs.minViewportYExact + "]");
+            }
+
+            // Tiles are calculated straight from the plan, so it has no image, iteration buffer or metrics
+            lastPlan = new Mandelbrot.RenderPlan(jobArgs, null, null, RenderDeadline.none);
+            lastJob = job;
+        }
+        return lastPlan;
+    }
+
+    //
+    // The first count rates, deflated
+    //
+    static byte[] deflate(int[] rates, int count) {
+        byte[] raw;
+        if( MandelbrotGenerator.maxIterations < 256 ) {
+            raw = new byte[count];
+            for( int i = 0; i < count; i++ ) {
+                raw[i] = (byte) rates[i];
+            }
+        } else {
+            raw = new byte[count * 2];
+            for( int i = 0; i < count; i++ ) {
+                raw[i * 2] = (byte) (rates[i] >> 8);
+                raw[i * 2 + 1] = (byte) rates[i];
+            }
+        }
+
+        // Iteration tiles are mostly runs of the same rate, so the fastest level already does well on them
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] chunk = new byte[8192];
+            while( !deflater.finished() ) {
+                deflated.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return deflated.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    //
+    // Inflate data written by deflate() into the first count rates
+    //
+    static void inflate(byte[] data, int[] rates, int count) throws IOException {
+        boolean wide = MandelbrotGenerator.maxIterations >= 256;
+        byte[] raw = new byte[wide ? count * 2 : count];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int length = 0;
+            while( length < raw.length && !inflater.finished() ) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if( inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()) ) {
+                    break;
+                }
+                length += inflated;
+            }
+            if( length != raw.length ) {
+                throw new IOException("Tile holds [" + length + "] bytes of rates, expected [" + raw.length + "]");
+            }
+        } catch ( DataFormatException x ) {
+            throw new IOException("Tile rates are corrupt", x);
+        } finally {
+            inflater.end();
+        }
+
+        for( int i = 0; i < count; i++ ) {
+            rates[i] = wide ? ((raw[i * 2] & 0xFF) << 8) | (raw[i * 2 + 1] & 0xFF) : raw[i] & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package mandelbrot;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+//
+// Renders a fixed set of reference viewports end to end, calculating and then encoding each to a PNG that is
+// thrown away, on 1, 2, 4 ... threads up to the available cores, or up to -t if that is more. Each viewport is
+// rendered a few times first so the JIT has compiled everything before anything is timed, and then -reps times
+// at each thread count, keeping the run with the median wall time.
+//
+// The table written has, for each viewport and thread count, the wall time split into calculating and encoding,
+// the speedup over one thread and the parallel efficiency, which is the speedup divided by the thread count. The
+// compute time of the busiest and least busy worker threads shows how evenly the tiles were spread over them.
+// It is written as JSON if the file name ends in .json and as CSV otherwise, or to standard output for "-".
+//
+// The resolution, anti-aliasing, render mode, kernel, formula and tile size given are used for every viewport,
+// so the report can be run with the settings used in production.
+//
+public class ScalingReport {
+
+    //
+    // Renders of each viewport before the timed ones
+    //
+    static final int warmupRuns = 2;
+
+    //
+    // Reference viewports: the whole set, which is mostly cheap, two zooms on the boundary where most points are
+    // expensive and neighbouring tiles differ the most, and one too deep for doubles
+    //
+    static final String[][] viewports = {
+            {"whole", "-2.0", "1.125", "1.0", "-1.125"},
+            {"seahorse", "-0.75", "0.1", "-0.74", "0.0925"},
+            {"elephant", "0.25", "0.05", "0.35", "-0.025"},
+            {"doubledouble", "-0.00000000000000000001", "1.0000000000000000000075", "0.00000000000000000001",
+                    "0.9999999999999999999925"}
+    };
+
+    private final MandelbrotArgs mArgs;
+
+    ScalingReport(MandelbrotArgs mArgs) {
+        this.mArgs = mArgs;
+    }
+
+    //
+    // 1, 2, 4 ... threads up to the available cores or -t, whichever is more, always ending on that number
+    //
+    static int[] threadCounts(int maxThreads) {
+        List<Integer> counts = new ArrayList<>();
+        for( int threads = 1; threads < maxThreads; threads <<= 1 ) {
+            counts.add(threads);
+        }
+        counts.add(maxThreads);
+        return counts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    void run() throws IOException {
+        int[] threadCounts = threadCounts(Math.max(Runtime.getRuntime().availableProcessors(), mArgs.numThreads));
+        List<Row> rows = new ArrayList<>();
+
+        for( String[] viewport : viewports ) {
+            MandelbrotArgs args = mArgs.withViewport(new BigDecimal(viewport[1]), new BigDecimal(viewport[2]),
+                    new BigDecimal(viewport[3]), new BigDecimal(viewport[4]));
+
+            args.numThreads = threadCounts[threadCounts.length - 1];
+            for( int i = 0; i < warmupRuns; i++ ) {
+                renderOnce(args);
+            }
+
+            Row single = null;
+            for( int threads : threadCounts ) {
+                args.numThreads = threads;
+                Row[] runs = new Row[mArgs.scalingReps];
+                for( int i = 0; i < runs.length; i++ ) {
+                    runs[i] = renderOnce(args);
+                }
+                Arrays.sort(runs, (a, b) -> Long.compare(a.wallNanos, b.wallNanos));
+
+                Row row = runs[runs.length / 2];
+                row.viewport = viewport[0];
+                if( single == null ) {
+                    single = row;
+                }
+                row.speedup = (double) single.wallNanos / row.wallNanos;
+                row.efficiency = row.speedup / threads;
+                rows.add(row);
+
+                System.out.println("Viewport [" + row.viewport + "] on [" + threads + "] threads in [" +
+                        row.wallNanos / 1000000 + "] ms, speedup [" + format(row.speedup) + "], efficiency [" +
+                        format(row.efficiency) + "]");
+            }
+        }
+
+        String table = mArgs.scalingReport.toLowerCase(Locale.ROOT).endsWith(".json") ? toJson(rows) :
+                toCsv(rows);
+        if( "-".equals(mArgs.scalingReport) ) {
+            System.out.print(table);
+        } else {
+            Files.writeString(Path.of(mArgs.scalingReport), table);
+        }
+    }
+
+    //
+    // Calculate and encode the image of args once, on a pool of its own
+    //
+    private static Row renderOnce(MandelbrotArgs args) throws IOException {
+        RenderMetrics metrics = new RenderMetrics();
+        ForkJoinPool pool = new ForkJoinPool(args.numThreads);
+        try {
+            long nanoStart = System.nanoTime();
+            BufferedImage img = Mandelbrot.render(args, null, metrics, RenderDeadline.none, pool);
+            long nanoEncode = System.nanoTime();
+            ParallelPngWriter.write(img, OutputStream.nullOutputStream(), args.compressionLevel, pool);
+            long nanoEnd = System.nanoTime();
+
+            Row row = new Row();
+            row.threads = args.numThreads;
+            row.wallNanos = nanoEnd - nanoStart;
+            row.renderNanos = nanoEncode - nanoStart;
+            row.encodeNanos = nanoEnd - nanoEncode;
+
+            // A thread that never got a tile did no work at all
+            long[] workers = new long[args.numThreads];
+            int i = 0;
+            for( LongAdder worker : metrics.workerNanos.values() ) {
+                if( i < workers.length ) {
+                    workers[i++] = worker.sum();
+                }
+            }
+            row.workerMinNanos = Arrays.stream(workers).min().orElse(0);
+            row.workerMaxNanos = Arrays.stream(workers).max().orElse(0);
+            row.workerMeanNanos = Arrays.stream(workers).sum() / workers.length;
+            return row;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private String toCsv(List<Row> rows) {
+        StringBuilder csv = new StringBuilder();
+        csv.append("viewport,threads,wallMs,renderMs,encodeMs,speedup,efficiency,workerMinMs,workerMeanMs," +
+                "workerMaxMs,workerSpread\n");
+        for( Row row : rows ) {
+            csv.append(row.viewport).append(',').append(row.threads).append(',')
+                    .append(millis(row.wallNanos)).append(',').append(millis(row.renderNanos)).append(',')
+                    .append(millis(row.encodeNanos)).append(',').append(format(row.speedup)).append(',')
+                    .append(format(row.efficiency)).append(',').append(millis(row.workerMinNanos)).append(',')
+                    .append(millis(row.workerMeanNanos)).append(',').append(millis(row.workerMaxNanos)).append(',')
+                    .append(format(row.spread())).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private String toJson(List<Row> rows) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"cores\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"width\": ").append(mArgs.xResolution).append(",\n");
+        json.append("  \"height\": ").append(mArgs.yResolution).append(",\n");
+        json.append("  \"aaLevel\": ").append(mArgs.aaCycles).append(",\n");
+        json.append("  \"reps\": ").append(mArgs.scalingReps).append(",\n");
+        json.append("  \"runs\": [");
+        String separator = "\n";
+        for( Row row : rows ) {
+            json.append(separator);
+            json.append("    {\"viewport\": \"").append(row.viewport).append("\", \"threads\": ").append(row.threads)
+                    .append(", \"wallMs\": ").append(millis(row.wallNanos))
+                    .append(", \"renderMs\": ").append(millis(row.renderNanos))
+                    .append(", \"encodeMs\": ").append(millis(row.encodeNanos))
+                    .append(", \"speedup\": ").append(format(row.speedup))
+                    .append(", \"efficiency\": ").append(format(row.efficiency))
+                    .append(", \"workerMinMs\": ").append(millis(row.workerMinNanos))
+                    .append(", \"workerMeanMs\": ").append(millis(row.workerMeanNanos))
+                    .append(", \"workerMaxMs\": ").append(millis(row.workerMaxNanos))
+                    .append(", \"workerSpread\": ").append(format(row.spread())).append("}");
+            separator = ",\n";
+        }
+        json.append(rows.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    //
+    // One viewport at one thread count
+    //
+    private static class Row {
+        String viewport;
+        int threads;
+        long wallNanos;
+        long renderNanos;
+        long encodeNanos;
+        double speedup;
+        double efficiency;
+        long workerMinNanos;
+        long workerMeanNanos;
+        long workerMaxNanos;
+
+        //
+        // Difference between the busiest and least busy workers as a fraction of the mean, zero when the tiles
+        // were spread perfectly evenly
+        //
+        double spread() {
+            return workerMeanNanos == 0 ? 0.0 : (double) (workerMaxNanos - workerMinNanos) / workerMeanNanos;
+        }
+    }
+}
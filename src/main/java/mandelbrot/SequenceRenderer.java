@@ -0,0 +1,348 @@
+package mandelbrot;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+//
+// Renders a zoom sequence from the -vp viewport to the -seq viewport, one PNG per frame, on a single pool
+// that stays warm for the whole sequence. Frame N is encoded on the calling thread while the pool calculates
+// frame N+1.
+//
+// Each frame reuses the samples of the frame before wherever they land on the new frame's sample lattice,
+// which happens when the zoom factor between frames is a power of two, or the frames are panned by whole
+// pixels. At AA 0 the samples are the pixels themselves. Above that only the lattice corners are reused, as
+// the centre samples never coincide between a frame and a zoomed one.
+//
+public class SequenceRenderer {
+
+    //
+    // How close, as a fraction of the sample spacing, a sample of the previous frame must be to a sample of
+    // the new one to be reused for it. Rounding the viewport of each frame moves its samples by a few units in
+    // the last place, so exact matches are rare.
+    //
+    static final double reuseTolerance = 1.0 / 1024.0;
+
+    private final MandelbrotArgs mArgs;
+    private final RenderMetrics metrics;
+    private final RenderDeadline deadline;
+    private final int width;
+    private final int height;
+
+    SequenceRenderer(MandelbrotArgs mArgs, RenderMetrics metrics, RenderDeadline deadline) {
+        this.mArgs = mArgs;
+        this.metrics = metrics;
+        this.deadline = deadline;
+        width = mArgs.xResolution;
+        height = mArgs.yResolution;
+    }
+
+    //
+    // Render and write every frame of the sequence, or those finished before the deadline expires
+    //
+    void render() throws IOException {
+        long nanoStart = System.nanoTime();
+        long reused = 0;
+        long lattice = 0;
+        int written = 0;
+
+        // One buffer being encoded, and one being calculated
+        int[][] argb = new int[2][width * height];
+
+        ForkJoinPool pool = new ForkJoinPool(mArgs.numThreads);
+        try {
+            ForkJoinTask<Samples> next = pool.submit(new Frame(0, null, null, argb[0]));
+            Samples previous = null;
+
+            for( int frame = 0; frame < mArgs.frames; frame++ ) {
+                Samples current = next.join();
+                if( current.stopped ) {
+                    // A frame with holes in it is no use in a sequence
+                    break;
+                }
+                if( frame + 1 < mArgs.frames ) {
+                    next = pool.submit(new Frame(frame + 1, current, previous, argb[(frame + 1) % 2]));
+                }
+
+                reused += current.reused;
+                lattice += current.rates == current.corners ? current.rates.length : current.corners.length;
+
+                RenderMetrics.EncodeEvent encode = RenderMetrics.beginEncode();
+                long nanoEncode = System.nanoTime();
+                String name = Mandelbrot.derivedFileName(mArgs.outputFile, String.format("-%04d", frame));
+                try (FileOutputStream out = new FileOutputStream(name);
+                     PngStreamWriter png = new PngStreamWriter(out.getChannel(), width, height,
+                             mArgs.compressionLevel)) {
+                    png.writeRows(argb[frame % 2], 0, height);
+                    long bytes = png.finish();
+                    metrics.encoded(encode, System.nanoTime() - nanoEncode, bytes);
+                }
+                written++;
+
+                if( mArgs.debug ) {
+                    System.out.println("Frame [" + frame + "] calculated in [" + current.calculateNanos / 1000000 +
+                            "] ms reusing [" + current.reused + "] samples, encoded to [" + name + "] in [" +
+                            (System.nanoTime() - nanoEncode) / 1000000 + "] ms");
+                }
+
+                previous = current;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        metrics.finish(mArgs);
+
+        long timeMs = (System.nanoTime() - nanoStart) / 1000000;
+        System.out.println("Rendered [" + written + "] of [" + mArgs.frames + "] frames in [" + timeMs + "] ms - [" +
+                String.format("%.2f", written * 1000.0 / Math.max(timeMs, 1)) + "] frames per second, [" +
+                String.format("%.1f", lattice == 0 ? 0.0 : 100.0 * reused / lattice) + "]% of samples reused");
+    }
+
+    //
+    // The arguments for one frame. The zoom is geometric, so the frames move towards the point that stays
+    // fixed between the start and end viewports at a steady apparent speed.
+    //
+    MandelbrotArgs frameArgs(int frame) {
+        if( frame == 0 ) {
+            return mArgs.withViewport(mArgs.minViewportXExact, mArgs.maxViewportYExact,
+                    mArgs.maxViewportXExact, mArgs.minViewportYExact);
+        }
+        if( frame == mArgs.frames - 1 ) {
+            return mArgs.withViewport(mArgs.endViewportXMin, mArgs.endViewportYMax,
+                    mArgs.endViewportXMax, mArgs.endViewportYMin);
+        }
+
+        double t = (double) frame / (mArgs.frames - 1);
+        BigDecimal[] x = interpolate(mArgs.minViewportXExact, mArgs.maxViewportXExact,
+                mArgs.endViewportXMin, mArgs.endViewportXMax, t);
+        BigDecimal[] y = interpolate(mArgs.minViewportYExact, mArgs.maxViewportYExact,
+                mArgs.endViewportYMin, mArgs.endViewportYMax, t);
+        return mArgs.withViewport(x[0], y[1], x[1], y[0]);
+    }
+
+    //
+    // The bounds on one axis at t between the start bounds (0) and the end bounds (1)
+    //
+    static BigDecimal[] interpolate(BigDecimal startMin, BigDecimal startMax, BigDecimal endMin, BigDecimal endMax,
+                                    double t) {
+        BigDecimal two = BigDecimal.valueOf(2);
+        BigDecimal startSize = startMax.subtract(startMin);
+        BigDecimal endSize = endMax.subtract(endMin);
+        BigDecimal startCentre = startMin.add(startSize.divide(two));
+        BigDecimal endCentre = endMin.add(endSize.divide(two));
+
+        double ratio = endSize.doubleValue() / startSize.doubleValue();
+        double scale = Math.pow(ratio, t);
+        double travelled = Math.abs(1.0 - ratio) < 1e-12 ? t : (1.0 - scale) / (1.0 - ratio);
+
+        BigDecimal centre = startCentre.add(endCentre.subtract(startCentre).multiply(new BigDecimal(travelled)));
+        BigDecimal halfSize = startSize.multiply(new BigDecimal(scale)).divide(two);
+        return new BigDecimal[] { centre.subtract(halfSize), centre.add(halfSize) };
+    }
+
+    //
+    // The samples of one frame, kept for the next frame to reuse. At AA 0 the lattice is the pixels and
+    // corners is the same array as rates.
+    //
+    private static class Samples {
+        final Mandelbrot.RenderPlan plan;
+        final int[] rates;
+        final int[] corners;
+        final int latticeWidth;
+        final int latticeHeight;
+        final double latticeXStep;
+        final double latticeYStep;
+        long reused;
+        long calculateNanos;
+
+        // Set when a band is cut short by the deadline
+        volatile boolean stopped;
+
+        Samples(Mandelbrot.RenderPlan plan, int width, int height, Samples spare) {
+            this.plan = plan;
+            int aaLevel = plan.mArgs.aaCycles;
+            int s = aaLevel == 0 ? 1 : 1 << (aaLevel - 1);
+
+            rates = spare != null ? spare.rates : new int[width * height];
+            Arrays.fill(rates, -1);
+            if( aaLevel == 0 ) {
+                corners = rates;
+                latticeWidth = width;
+                latticeHeight = height;
+            } else {
+                corners = spare != null ? spare.corners : MandelbrotGenerator.newCornerMemo(width, height, aaLevel);
+                Arrays.fill(corners, -1);
+                latticeWidth = width * s + 1;
+                latticeHeight = height * s + 1;
+            }
+            latticeXStep = plan.xIncrement / s;
+            latticeYStep = plan.yIncrement / s;
+        }
+
+        //
+        // Copy the samples of previous that land on this frame's lattice, returning how many did
+        //
+        long seedFrom(Samples previous) {
+            // Perturbation and double-double samples are offsets from a centre that moves with every frame
+            if( previous == null || isCentred(plan) || isCentred(previous.plan) ) {
+                return 0;
+            }
+
+            int[] columns = latticeMap(plan.viewportUlX, latticeXStep, latticeWidth,
+                    previous.plan.viewportUlX, previous.latticeXStep, previous.latticeWidth);
+            int[] rows = latticeMap(plan.viewportUlY, latticeYStep, latticeHeight,
+                    previous.plan.viewportUlY, previous.latticeYStep, previous.latticeHeight);
+
+            long seeded = 0;
+            for( int j = 0; j < latticeHeight; j++ ) {
+                if( rows[j] < 0 ) {
+                    continue;
+                }
+                int from = rows[j] * previous.latticeWidth;
+                int to = j * latticeWidth;
+                for( int i = 0; i < latticeWidth; i++ ) {
+                    if( columns[i] >= 0 ) {
+                        corners[to + i] = previous.corners[from + columns[i]];
+                        seeded++;
+                    }
+                }
+            }
+            return seeded;
+        }
+
+        private static boolean isCentred(Mandelbrot.RenderPlan plan) {
+            return plan.kernel == MandelbrotGenerator.Kernel.PERTURBATION ||
+                    plan.kernel == MandelbrotGenerator.Kernel.DOUBLE_DOUBLE;
+        }
+
+        //
+        // For each of count samples from origin, the index of the sample of the old lattice at the same point,
+        // or -1 if there isn't one
+        //
+        static int[] latticeMap(double origin, double step, int count, double oldOrigin, double oldStep, int oldCount) {
+            int[] map = new int[count];
+            double tolerance = Math.abs(step) * reuseTolerance;
+            for( int i = 0; i < count; i++ ) {
+                double position = origin + ((double) i * step);
+                long old = Math.round((position - oldOrigin) / oldStep);
+                if( old >= 0 && old < oldCount && Math.abs(oldOrigin + ((double) old * oldStep) - position) <= tolerance ) {
+                    map[i] = (int) old;
+                } else {
+                    map[i] = -1;
+                }
+            }
+            return map;
+        }
+    }
+
+    //
+    // Calculates one frame into argb, reusing what it can from previous and the arrays of spare
+    //
+    private class Frame extends RecursiveTask<Samples> {
+
+        private final int frame;
+        private final Samples previous;
+        private final Samples spare;
+        private final int[] argb;
+
+        Frame(int frame, Samples previous, Samples spare, int[] argb) {
+            this.frame = frame;
+            this.previous = previous;
+            this.spare = spare;
+            this.argb = argb;
+        }
+
+        @Override
+        protected Samples compute() {
+            long nanoStart = System.nanoTime();
+
+            Samples samples = new Samples(new Mandelbrot.RenderPlan(frameArgs(frame), null, metrics, deadline), width, height,
+                    spare);
+            samples.reused = samples.seedFrom(previous);
+
+            List<Band> bands = new ArrayList<>();
+            for( int fromY = 0; fromY < height; fromY += mArgs.tileSize ) {
+                bands.add(new Band(samples, argb, fromY, Math.min(fromY + mArgs.tileSize, height)));
+            }
+            invokeAll(bands);
+
+            samples.calculateNanos = System.nanoTime() - nanoStart;
+            return samples;
+        }
+    }
+
+    //
+    // Rows fromY to toY exclusive of a frame. At AA 0, rows with nothing reused are calculated a row at a time
+    // so they can use the vector kernel.
+    //
+    private class Band extends RecursiveAction {
+
+        private final Samples samples;
+        private final int[] argb;
+        private final int fromY;
+        private final int toY;
+
+        Band(Samples samples, int[] argb, int fromY, int toY) {
+            this.samples = samples;
+            this.argb = argb;
+            this.fromY = fromY;
+            this.toY = toY;
+        }
+
+        @Override
+        protected void compute() {
+            RenderMetrics.TileEvent event = RenderMetrics.beginTile();
+            long nanoStart = System.nanoTime();
+
+            Mandelbrot.RenderPlan plan = samples.plan;
+            int[] rates = samples.rates;
+
+            MandelbrotGenerator gen = plan.newGenerator();
+            gen.beginRegion(plan.viewportUlX, plan.viewportUlY, plan.xIncrement, plan.yIncrement, 0, width,
+                    mArgs.aaCycles);
+            if( samples.corners != rates ) {
+                gen.attachCornerMemo(samples.corners, 0);
+            }
+
+            for( int y = fromY; y < toY; y++ ) {
+                if( deadline.expired() ) {
+                    samples.stopped = true;
+                    plan.metrics.tileStopped();
+                    break;
+                }
+                int offset = y * width;
+                if( samples.corners == rates && !anyReused(rates, offset) ) {
+                    gen.calculateRow(y, rates, offset);
+                } else {
+                    for( int x = 0; x < width; x++ ) {
+                        if( rates[offset + x] < 0 ) {
+                            rates[offset + x] = gen.calculatePixel(x, y);
+                        }
+                    }
+                }
+
+                for( int x = 0; x < width; x++ ) {
+                    argb[offset + x] = plan.colours[rates[offset + x]];
+                }
+            }
+
+            plan.metrics.tileComplete(event, gen, 0, fromY, width, toY - fromY, System.nanoTime() - nanoStart, 0);
+        }
+
+        private boolean anyReused(int[] rates, int offset) {
+            for( int x = 0; x < width; x++ ) {
+                if( rates[offset + x] >= 0 ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package mandelbrot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+//
+// The tiles of a render appended to a file as they finish, so that a render which crashes, is killed or is
+// stopped by its deadline can be started again with --resume and only calculate the tiles that are missing.
+//
+// Each tile is kept as its raw escape rates, in one byte each while the iteration limit fits, or two otherwise,
+// with a CRC-32C over the record. Records are written from the thread that calculated the tile, each to a
+// place of its own at the end of the file, and the file is only forced out to disk every few seconds, so a
+// tile costs a copy of its rates and one write rather than a wait for the disk.
+//
+// The file starts with a header identifying the render, and any other render refuses to resume from it.
+// Everything is big endian.
+//
+//     int    magic, "MBTJ"
+//     int    version, 1
+//     int    length of the render, then the render as written by MandelbrotArgs.writeJob(), followed by the
+//            tile size, iteration limit and bytes per rate as ints
+//
+// followed by a record for every tile finished, in the order they finished
+//
+//     int    ulX, ulY, width, height
+//     int    CRC-32C of the four ints above and the rates
+//     width x height rates, a row at a time
+//
+// When resuming, the records are read up to the first one that isn't whole, which is where the last run
+// stopped writing, and the file is cut off there. A record whose rates don't match its checksum is calculated
+// again, and the new record replaces it.
+//
+public class TileJournal implements Closeable {
+
+    static final int magic = 0x4D42_544A;
+    static final int version = 1;
+
+    static final int recordHeaderBytes = 20;
+
+    //
+    // Longest time finished tiles are left in the page cache before being forced out to disk. Only a crash of
+    // the whole machine loses them, and then no more than this much work.
+    //
+    static final long forceIntervalNanos = 5_000_000_000L;
+
+    final Path path;
+
+    private final FileChannel channel;
+    private final int bytesPerRate;
+    private final AtomicLong end;
+    private final AtomicLong lastForced = new AtomicLong(System.nanoTime());
+
+    //
+    // Tiles found in the file when it was opened, as an open addressed hash table from tile to the position of
+    // its record, which is zero for an empty slot. Both are null if there weren't any.
+    //
+    private final long[] tileKeys;
+    private final long[] tilePositions;
+
+    private boolean discarded = false;
+
+    private TileJournal(Path path, FileChannel channel, int bytesPerRate, long end, long[] tileKeys,
+                        long[] tilePositions) {
+        this.path = path;
+        this.channel = channel;
+        this.bytesPerRate = bytesPerRate;
+        this.end = new AtomicLong(end);
+        this.tileKeys = tileKeys;
+        this.tilePositions = tilePositions;
+    }
+
+    //
+    // The journal at path for a render of mArgs. When resuming it continues the journal already there, or
+    // starts a new one if there isn't one, and otherwise replaces any file that is already there.
+    //
+    static TileJournal open(Path path, MandelbrotArgs mArgs, boolean resume) throws IOException {
+        int bytesPerRate = MandelbrotGenerator.maxIterations < 256 ? 1 : 2;
+        byte[] header = header(mArgs, bytesPerRate);
+
+        if( resume && Files.exists(path) ) {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                return resume(path, channel, mArgs, bytesPerRate, header);
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        if( resume ) {
+            System.out.println("There is no journal [" + path + "] to resume from, so starting from the beginning");
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            writeFully(channel, ByteBuffer.wrap(header), 0);
+            return new TileJournal(path, channel, bytesPerRate, header.length, null, null);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private static byte[] header(MandelbrotArgs mArgs, int bytesPerRate) throws IOException {
+        ByteArrayOutputStream job = new ByteArrayOutputStream();
+        DataOutputStream jobOut = new DataOutputStream(job);
+        mArgs.writeJob(jobOut);
+        jobOut.writeInt(mArgs.tileSize);
+        jobOut.writeInt(MandelbrotGenerator.maxIterations);
+        jobOut.writeInt(bytesPerRate);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeInt(job.size());
+        job.writeTo(out);
+        return header.toByteArray();
+    }
+
+    //
+    // Check that the journal on channel is of this render, and find the tiles it holds
+    //
+    private static TileJournal resume(Path path, FileChannel channel, MandelbrotArgs mArgs, int bytesPerRate,
+                                      byte[] header) throws IOException {
+        long size = channel.size();
+        ByteBuffer existing = ByteBuffer.allocate((int) Math.min(size, header.length));
+        readFully(channel, existing, 0);
+        if( existing.capacity() < 8 || existing.getInt(0) != magic ) {
+            throw new IOException("[" + path + "] is not a tile journal");
+        } else if( existing.getInt(4) != version ) {
+            throw new IOException("[" + path + "] is tile journal version [" + existing.getInt(4) +
+                    "], only version [" + version + "] is supported");
+        } else if( !Arrays.equals(existing.array(), header) ) {
+            throw new IOException("[" + path + "] is the journal of a different render. Give the same viewport, " +
+                    "resolution, anti-aliasing, formula, kernel, mode and tile size as the render it was started by");
+        }
+
+        //
+        // Walk the records from one header to the next. Their rates are only read, and checked, when their
+        // tiles are restored.
+        //
+        long[] keys = new long[64];
+        long[] positions = new long[64];
+        int count = 0;
+        long position = header.length;
+        ByteBuffer record = ByteBuffer.allocate(16);
+        while( position + recordHeaderBytes <= size ) {
+            record.clear();
+            readFully(channel, record, position);
+            int ulX = record.getInt(0);
+            int ulY = record.getInt(4);
+            int tileWidth = record.getInt(8);
+            int tileHeight = record.getInt(12);
+            long next = position + recordHeaderBytes + (long) tileWidth * tileHeight * bytesPerRate;
+            if( !isTile(mArgs, ulX, ulY, tileWidth, tileHeight) || next > size ) {
+                break;
+            }
+
+            if( count == keys.length ) {
+                keys = Arrays.copyOf(keys, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            keys[count] = key(ulX, ulY);
+            positions[count] = position;
+            count++;
+            position = next;
+        }
+
+        if( position < size ) {
+            System.out.println("Dropping [" + (size - position) + "] bytes of unfinished tiles from the end of [" +
+                    path + "]");
+            channel.truncate(position);
+        }
+
+        long[] tileKeys = null;
+        long[] tilePositions = null;
+        if( count > 0 ) {
+            tileKeys = new long[Integer.highestOneBit(count) * 4];
+            tilePositions = new long[tileKeys.length];
+            // Later records of a tile are calculations replacing a damaged one, so they win
+            for( int i = 0; i < count; i++ ) {
+                int slot = slot(tileKeys, tilePositions, keys[i]);
+                tileKeys[slot] = keys[i];
+                tilePositions[slot] = positions[i];
+            }
+        }
+        System.out.println("Resuming from [" + count + "] finished tiles in [" + path + "]");
+
+        return new TileJournal(path, channel, bytesPerRate, position, tileKeys, tilePositions);
+    }
+
+    //
+    // Whether a record header could be of a tile of mArgs, rather than of a record cut short by a crash
+    //
+    private static boolean isTile(MandelbrotArgs mArgs, int ulX, int ulY, int width, int height) {
+        return ulX >= 0 && ulX % mArgs.tileSize == 0 && width > 0 && width <= mArgs.tileSize &&
+                width <= mArgs.xResolution - ulX && ulY >= 0 && height > 0 && height <= mArgs.tileSize &&
+                height <= mArgs.yResolution - ulY;
+    }
+
+    private static long key(int ulX, int ulY) {
+        return (long) ulY << 32 | ulX;
+    }
+
+    //
+    // The slot of keys holding key, or the empty one it would go in
+    //
+    private static int slot(long[] keys, long[] positions, long key) {
+        int mask = keys.length - 1;
+        int slot = (int) ((key * 0x9E37_79B9_7F4A_7C15L) >>> 32) & mask;
+        while( positions[slot] != 0 && keys[slot] != key ) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    //
+    // Fill the rates of the width x height tile at ulX, ulY in from its record, with row j at
+    // rates[offset + j * stride]. Returns false, leaving rates alone, if the tile wasn't in the journal when it
+    // was opened or its record is damaged, in which case the tile has to be calculated.
+    //
+    boolean restore(int ulX, int ulY, int width, int height, int[] rates, int offset, int stride) throws IOException {
+        if( tileKeys == null ) {
+            return false;
+        }
+        long position = tilePositions[slot(tileKeys, tilePositions, key(ulX, ulY))];
+        if( position == 0 ) {
+            return false;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(recordHeaderBytes + width * height * bytesPerRate);
+        readFully(channel, record, position);
+        if( record.getInt(8) != width || record.getInt(12) != height ) {
+            return false;
+        }
+        if( record.getInt(16) != checksum(record) ) {
+            System.err.println("The journal record of the tile at [" + ulX + ", " + ulY + "] is damaged, so it " +
+                    "will be calculated again");
+            return false;
+        }
+
+        record.position(recordHeaderBytes);
+        for( int j = 0; j < height; j++ ) {
+            int rowOffset = offset + j * stride;
+            if( bytesPerRate == 1 ) {
+                for( int i = rowOffset; i < rowOffset + width; i++ ) {
+                    rates[i] = record.get() & 0xFF;
+                }
+            } else {
+                for( int i = rowOffset; i < rowOffset + width; i++ ) {
+                    rates[i] = record.getShort() & 0xFFFF;
+                }
+            }
+        }
+        return true;
+    }
+
+    //
+    // Append the rates of the finished width x height tile at ulX, ulY, laid out as for restore(). Tiles may be
+    // recorded from different threads at once.
+    //
+    void record(int ulX, int ulY, int width, int height, int[] rates, int offset, int stride) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(recordHeaderBytes + width * height * bytesPerRate);
+        record.putInt(ulX).putInt(ulY).putInt(width).putInt(height).putInt(0);
+        for( int j = 0; j < height; j++ ) {
+            int rowOffset = offset + j * stride;
+            if( bytesPerRate == 1 ) {
+                for( int i = rowOffset; i < rowOffset + width; i++ ) {
+                    record.put((byte) rates[i]);
+                }
+            } else {
+                for( int i = rowOffset; i < rowOffset + width; i++ ) {
+                    record.putShort((short) rates[i]);
+                }
+            }
+        }
+        record.putInt(16, checksum(record));
+        record.flip();
+
+        writeFully(channel, record, end.getAndAdd(record.remaining()));
+
+        // One thread at a time forces the file out, the others carry on
+        long now = System.nanoTime();
+        long forced = lastForced.get();
+        if( now - forced > forceIntervalNanos && lastForced.compareAndSet(forced, now) ) {
+            channel.force(false);
+        }
+    }
+
+    //
+    // CRC-32C of a whole record, other than the checksum itself
+    //
+    private static int checksum(ByteBuffer record) {
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 0, 16);
+        crc.update(record.array(), recordHeaderBytes, record.capacity() - recordHeaderBytes);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while( buffer.hasRemaining() ) {
+            if( channel.read(buffer, position + buffer.position()) < 0 ) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while( buffer.hasRemaining() ) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    //
+    // Once the image has been written out, delete the journal if every tile was finished. Otherwise keep it,
+    // and say how to carry on from it.
+    //
+    void finish(RenderMetrics metrics) throws IOException {
+        if( metrics.tilesStopped.sum() > 0 ) {
+            System.out.println("The finished tiles are kept in [" + path + "], run again with --resume to " +
+                    "calculate the rest");
+        } else {
+            discarded = true;
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if( !discarded ) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package mandelbrot;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import org.apache.commons.numbers.complex.Complex;
+
+//
+// SIMD version of MandelbrotGenerator.escapeTime(), built on the incubating JDK Vector API. A span of points
+// sharing the same imaginary component is iterated in lockstep, as many points at a time as the CPU's
+// preferred vector width holds, with a lane mask tracking the points that have yet to escape.
+//
+// The JVM must be started with --add-modules jdk.incubator.vector for this class to load. Use
+// MandelbrotGenerator.resolveKernel() to check, rather than referring to this class directly.
+//
+final class VectorKernel {
+
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorKernel() {
+    }
+
+    //
+    // Only worth using if the hardware can actually process more than one double at a time
+    //
+    static boolean isSupported() {
+        return SPECIES.length() > 1;
+    }
+
+    //
+    // Calculate escape times for the points cRe[i], cIm for i in [0, count) into out[offset + i]. Entries of out
+    // that are already zero or above on entry are taken as resolved and are not iterated.
+    //
+    // Every lane performs exactly the same sequence of floating point operations as escapeTime(), including
+    // deferring to Complex.abs() when |z|^2 is within the divergence band, so the counts are identical.
+    //
+    static void escapeRow(double[] cRe, double cIm, int[] out, int offset, int count) {
+        int lanes = SPECIES.length();
+        int bound = SPECIES.loopBound(count);
+
+        int i = 0;
+        for( ; i < bound; i += lanes ) {
+            VectorMask<Double> active = VectorMask.fromLong(SPECIES, pendingLanes(out, offset + i, lanes));
+            if( !active.anyTrue() ) {
+                continue;
+            }
+
+            DoubleVector cr = DoubleVector.fromArray(SPECIES, cRe, i);
+            DoubleVector ci = DoubleVector.broadcast(SPECIES, cIm);
+            DoubleVector zr = cr;
+            DoubleVector zi = ci;
+
+            int iteration = 0;
+            for( ; iteration < MandelbrotGenerator.maxIterations; iteration++ ) {
+                DoubleVector zr2 = zr.mul(zr);
+                DoubleVector zi2 = zi.mul(zi);
+                DoubleVector mag2 = zr2.add(zi2);
+
+                VectorMask<Double> nearCeiling = mag2.compare(VectorOperators.GE,
+                        MandelbrotGenerator.divergenceBandLow, active);
+                if( nearCeiling.anyTrue() ) {
+                    // Rare - each lane reaches here once when it escapes, or briefly inside the band
+                    active = resolveEscapes(nearCeiling, active, mag2, zr, zi, iteration, out, offset + i);
+                    if( !active.anyTrue() ) {
+                        break;
+                    }
+                }
+
+                DoubleVector zrzi = zr.mul(zi);
+                zi = zrzi.add(zrzi).add(ci);
+                zr = zr2.sub(zi2).add(cr);
+            }
+
+            if( iteration == MandelbrotGenerator.maxIterations ) {
+                for( int lane = 0; lane < lanes; lane++ ) {
+                    if( active.laneIsSet(lane) ) {
+                        out[offset + i + lane] = MandelbrotGenerator.maxIterations;
+                    }
+                }
+            }
+        }
+
+        // Scalar tail for the points that don't fill a whole vector
+        for( ; i < count; i++ ) {
+            if( out[offset + i] < 0 ) {
+                out[offset + i] = MandelbrotGenerator.escapeTime(cRe[i], cIm);
+            }
+        }
+    }
+
+    private static long pendingLanes(int[] out, int offset, int lanes) {
+        long bits = 0;
+        for( int lane = 0; lane < lanes; lane++ ) {
+            if( out[offset + lane] < 0 ) {
+                bits |= 1L << lane;
+            }
+        }
+        return bits;
+    }
+
+    //
+    // Record the escape of any lanes in nearCeiling that have passed the divergence ceiling, returning the
+    // lanes still active
+    //
+    private static VectorMask<Double> resolveEscapes(VectorMask<Double> nearCeiling, VectorMask<Double> active,
+                                                     DoubleVector mag2, DoubleVector zr, DoubleVector zi,
+                                                     int iteration, int[] out, int offset) {
+        long activeBits = active.toLong();
+        for( int lane = 0; lane < SPECIES.length(); lane++ ) {
+            if( !nearCeiling.laneIsSet(lane) ) {
+                continue;
+            }
+            if( mag2.lane(lane) >= MandelbrotGenerator.divergenceBandHigh ||
+                    Complex.ofCartesian(zr.lane(lane), zi.lane(lane)).abs() >= MandelbrotGenerator.divergenceCeiling ) {
+                out[offset + lane] = iteration;
+                activeBits &= ~(1L << lane);
+            }
+        }
+        return VectorMask.fromLong(SPECIES, activeBits);
+    }
+}
@@ -0,0 +1,215 @@
+package mandelbrot;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//
+// Bands compressed on their own and joined into one zlib stream have to come back as the image they were cut from
+//
+class ParallelPngWriterTest {
+
+    //
+    // 1000 pixel RGB rows are 3001 filtered bytes, so a band is 87 rows, and 300 rows make three whole bands and a
+    // short one of 39
+    //
+    static final int width = 1000;
+    static final int height = 300;
+
+    @Test
+    void bandsJoinIntoTheImage() throws Exception {
+        BufferedImage img = image(false);
+        assertEquals(87, ParallelPngWriter.bandBytes / (width * 3 + 1));
+
+        Png png = write(img, 3);
+
+        assertEquals(2, png.colourType);
+        assertPixelsEqual(img, png, 3);
+    }
+
+    @Test
+    void unfinishedPixelsKeepTheirAlpha() throws Exception {
+        BufferedImage img = image(true);
+
+        Png png = write(img, 3);
+
+        assertEquals(6, png.colourType);
+        assertPixelsEqual(img, png, 4);
+    }
+
+    @Test
+    void combinedAdler32MatchesTheWhole() {
+        byte[] data = new byte[200_000];
+        new Random(7).nextBytes(data);
+
+        // Pieces either side of the 65521 modulus, and empty ones
+        for( int split : new int[]{0, 1, 65520, 65521, 65522, 131_042, data.length} ) {
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            Adler32 whole = new Adler32();
+            whole.update(data);
+
+            assertEquals(whole.getValue(), ParallelPngWriter.combineAdler32(first.getValue(), second.getValue(),
+                    data.length - split), "split at " + split);
+        }
+    }
+
+    //
+    // Noise, which compresses badly enough that each band takes several passes through the deflate buffer,
+    // over a gradient. With alpha the bottom rows are left transparent, as a render stopped by its deadline
+    // leaves them.
+    //
+    static BufferedImage image(boolean alpha) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(42);
+        for( int y = 0; y < height; y++ ) {
+            for( int x = 0; x < width; x++ ) {
+                int rgb = (x % 3 == 0) ? random.nextInt(0x100_0000) : (x * 255 / width) << 16 | (y * 255 / height);
+                int a = alpha && y >= height - 50 ? 0 : 0xFF;
+                img.setRGB(x, y, a << 24 | rgb);
+            }
+        }
+        return img;
+    }
+
+    static class Png {
+        int width;
+        int height;
+        int colourType;
+        byte[] zlib;
+    }
+
+    //
+    // Write img on threads threads, and check the chunks and the lengths along the way
+    //
+    static Png write(BufferedImage img, int threads) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = ParallelPngWriter.write(img, out, 6, threads);
+        byte[] bytes = out.toByteArray();
+        assertEquals(bytes.length, written);
+        assertArrayEquals(PngStreamWriter.signature, Arrays.copyOf(bytes, PngStreamWriter.signature.length));
+
+        Png png = new Png();
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipNBytes(PngStreamWriter.signature.length);
+        String type;
+        do {
+            int length = in.readInt();
+            byte[] typeAndData = new byte[4 + length];
+            in.readFully(typeAndData);
+            CRC32 crc = new CRC32();
+            crc.update(typeAndData);
+            type = new String(typeAndData, 0, 4, StandardCharsets.US_ASCII);
+            assertEquals((int) crc.getValue(), in.readInt(), "CRC of " + type);
+
+            if( type.equals("IHDR") ) {
+                DataInputStream header = new DataInputStream(new ByteArrayInputStream(typeAndData, 4, length));
+                png.width = header.readInt();
+                png.height = header.readInt();
+                assertEquals(8, header.readByte());
+                png.colourType = header.readByte();
+            } else if( type.equals("IDAT") ) {
+                idat.write(typeAndData, 4, length);
+            }
+        } while( !type.equals("IEND") );
+        assertEquals(0, in.available());
+
+        png.zlib = idat.toByteArray();
+        assertEquals(img.getWidth(), png.width);
+        assertEquals(img.getHeight(), png.height);
+        return png;
+    }
+
+    //
+    // Inflate the zlib stream, check its trailer against the Adler-32 of everything inflated, and undo the
+    // filters to compare every pixel with img
+    //
+    static void assertPixelsEqual(BufferedImage img, Png png, int bytesPerPixel) throws DataFormatException {
+        int rowBytes = png.width * bytesPerPixel;
+        byte[] filtered = new byte[png.height * (rowBytes + 1)];
+
+        // Raw deflate between the two byte header and the four byte trailer
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(png.zlib, 2, png.zlib.length - 6);
+        assertEquals(filtered.length, inflater.inflate(filtered));
+        assertTrue(inflater.finished());
+        inflater.end();
+
+        Adler32 adler = new Adler32();
+        adler.update(filtered);
+        long trailer = (png.zlib[png.zlib.length - 4] & 0xFFL) << 24 | (png.zlib[png.zlib.length - 3] & 0xFF) << 16 |
+                (png.zlib[png.zlib.length - 2] & 0xFF) << 8 | (png.zlib[png.zlib.length - 1] & 0xFF);
+        assertEquals(adler.getValue(), trailer);
+
+        // zlib checks the header and trailer of the stream as a whole as well
+        inflater = new Inflater();
+        inflater.setInput(png.zlib);
+        assertEquals(filtered.length, inflater.inflate(new byte[filtered.length + 1]));
+        assertTrue(inflater.finished());
+        inflater.end();
+
+        byte[] previous = new byte[rowBytes];
+        byte[] row = new byte[rowBytes];
+        for( int y = 0; y < png.height; y++ ) {
+            int offset = y * (rowBytes + 1);
+            unfilter(filtered[offset], filtered, offset + 1, row, previous, bytesPerPixel);
+
+            for( int x = 0; x < png.width; x++ ) {
+                int b = x * bytesPerPixel;
+                int argb = (bytesPerPixel == 4 ? row[b + 3] & 0xFF : 0xFF) << 24 | (row[b] & 0xFF) << 16 |
+                        (row[b + 1] & 0xFF) << 8 | (row[b + 2] & 0xFF);
+                int expected = img.getRGB(x, y);
+                if( bytesPerPixel == 3 ) {
+                    expected |= 0xFF00_0000;
+                }
+                assertEquals(expected, argb, "pixel " + x + ", " + y);
+            }
+
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+    }
+
+    //
+    // Undo the filter of one row, as a PNG decoder does
+    //
+    static void unfilter(int filter, byte[] in, int offset, byte[] row, byte[] previous, int bpp) {
+        for( int i = 0; i < row.length; i++ ) {
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+            int predicted = switch( filter ) {
+                case 0 -> 0;
+                case 1 -> a;
+                case 2 -> b;
+                case 3 -> (a + b) >>> 1;
+                case 4 -> {
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+                    yield pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+                }
+                default -> throw new AssertionError("Filter type " + filter);
+            };
+            row[i] = (byte) (in[offset + i] + predicted);
+        }
+    }
+}
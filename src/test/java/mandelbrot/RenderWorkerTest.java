@@ -0,0 +1,147 @@
+package mandelbrot;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//
+// Tiles sent between a RenderCoordinator and a RenderWorker
+//
+class RenderWorkerTest {
+
+    @Test
+    void ratesSurviveDeflateAndInflate() throws IOException {
+        Random random = new Random(3);
+        // An odd count, less than the array holds, of runs as the set gives and noise as its boundary does
+        int count = 37 * 29;
+        int[] rates = new int[64 * 64];
+        for( int i = 0; i < count; i++ ) {
+            rates[i] = i < count / 2 ? MandelbrotGenerator.maxIterations :
+                    random.nextInt(MandelbrotGenerator.maxIterations + 1);
+        }
+
+        byte[] deflated = RenderWorker.deflate(rates, count);
+        int[] inflated = new int[rates.length];
+        Arrays.fill(inflated, -1);
+        RenderWorker.inflate(deflated, inflated, count);
+
+        assertArrayEquals(Arrays.copyOf(rates, count), Arrays.copyOf(inflated, count));
+        // Rates past count are left alone
+        assertEquals(-1, inflated[count]);
+    }
+
+    @Test
+    void shortOrCorruptRatesAreRejected() {
+        int[] rates = new int[100];
+        Arrays.fill(rates, 7);
+        byte[] deflated = RenderWorker.deflate(rates, rates.length);
+
+        IOException tooFew = assertThrows(IOException.class,
+                () -> RenderWorker.inflate(deflated, new int[200], 200));
+        assertTrue(tooFew.getMessage().contains("expected [200]"), tooFew.getMessage());
+
+        byte[] truncated = Arrays.copyOf(deflated, deflated.length / 2);
+        assertThrows(IOException.class, () -> RenderWorker.inflate(truncated, new int[100], 100));
+
+        byte[] corrupt = deflated.clone();
+        corrupt[0] ^= 0x55;
+        assertThrows(IOException.class, () -> RenderWorker.inflate(corrupt, new int[100], 100));
+    }
+
+    @Test
+    void workerCalculatesTilesAndRefusesOversizedOnes() throws Exception {
+        MandelbrotArgs job = MandelbrotArgs.parseArgs(new String[]{"-o", "unused.png", "-r", "64", "48"});
+        assertFalse(job.parseErrors, job.errorMsg);
+        ByteArrayOutputStream jobBytes = new ByteArrayOutputStream();
+        job.writeJob(new DataOutputStream(jobBytes));
+
+        int port;
+        try( ServerSocket free = new ServerSocket(0) ) {
+            port = free.getLocalPort();
+        }
+        MandelbrotArgs workerArgs = MandelbrotArgs.parseArgs(new String[]{"--worker", Integer.toString(port)});
+        assertFalse(workerArgs.parseErrors, workerArgs.errorMsg);
+        Thread worker = new Thread(() -> {
+            try {
+                new RenderWorker(workerArgs).serve();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }, "worker");
+        worker.setDaemon(true);
+        worker.start();
+
+        try( Socket socket = connect(port) ) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            out.writeInt(RenderWorker.magic);
+            out.writeInt(RenderWorker.version);
+            out.writeInt(MandelbrotGenerator.maxIterations);
+            out.writeInt(16);
+            out.writeInt(jobBytes.size());
+            jobBytes.writeTo(out);
+            out.flush();
+            assertTrue(in.readInt() > 0);
+
+            // A tile at the edge of the image, narrower than the tile size
+            writeTile(out, 48, 32, 16, 16);
+            in.readLong();
+            new MandelbrotGenerator().readStats(in);
+            byte[] deflated = new byte[in.readInt()];
+            in.readFully(deflated);
+            int[] rates = new int[16 * 16];
+            RenderWorker.inflate(deflated, rates, rates.length);
+
+            Mandelbrot.RenderPlan plan = new Mandelbrot.RenderPlan(job, null, new RenderMetrics(),
+                    RenderDeadline.none);
+            int[] expected = new int[16 * 16];
+            plan.calculateTile(plan.newGenerator(), 48, 32, 16, 16, expected);
+            assertArrayEquals(expected, rates);
+
+            // Inside the image, but wider than the tile size, so the worker drops the connection
+            writeTile(out, 0, 0, 32, 16);
+            assertThrows(IOException.class, in::readLong);
+        }
+    }
+
+    static void writeTile(DataOutputStream out, int ulX, int ulY, int width, int height) throws IOException {
+        out.writeInt(ulX);
+        out.writeInt(ulY);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.flush();
+    }
+
+    //
+    // Connect to the worker on port once it is listening
+    //
+    static Socket connect(int port) throws IOException, InterruptedException {
+        for( int attempt = 0; ; attempt++ ) {
+            try {
+                return new Socket("localhost", port);
+            } catch (ConnectException ex) {
+                if( attempt == 100 ) {
+                    throw ex;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
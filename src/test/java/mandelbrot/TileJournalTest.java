@@ -0,0 +1,157 @@
+package mandelbrot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//
+// Resuming renders from journals that were cut short, damaged, or written by a different render
+//
+class TileJournalTest {
+
+    //
+    // 64 x 48 pixels in 16 x 16 tiles, 4 x 3 of them. The viewport is off centre so no rows are mirrored and every
+    // tile has a record.
+    //
+    static final String[] render = {"-o", "unused.png", "-r", "64", "48", "-ts", "16",
+            "-vp", "-2.0", "1.2", "1.0", "-1.0"};
+    static final int tiles = 12;
+    static final int recordBytes = TileJournal.recordHeaderBytes + 16 * 16;
+
+    @TempDir
+    Path dir;
+
+    Path journalPath;
+    ForkJoinPool pool;
+
+    @BeforeEach
+    void setUp() {
+        journalPath = dir.resolve("render.journal");
+        pool = new ForkJoinPool(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void truncatedTrailingRecordIsDropped() throws IOException {
+        MandelbrotArgs mArgs = args(render);
+        BufferedImage expected = renderWithJournal(mArgs, false, new RenderMetrics());
+        long size = Files.size(journalPath);
+        long headerBytes = size - (long) tiles * recordBytes;
+
+        // A crash part way through writing the last record
+        try( RandomAccessFile file = new RandomAccessFile(journalPath.toFile(), "rw") ) {
+            file.setLength(size - 100);
+        }
+
+        RenderMetrics metrics = new RenderMetrics();
+        BufferedImage resumed = renderWithJournal(mArgs, true, metrics);
+
+        assertEquals(tiles - 1, metrics.tilesResumed.sum());
+        assertPixelsEqual(expected, resumed);
+        assertEquals(headerBytes + (long) tiles * recordBytes, Files.size(journalPath));
+    }
+
+    @Test
+    void damagedRecordIsCalculatedAgainAndReplaced() throws IOException {
+        MandelbrotArgs mArgs = args(render);
+        BufferedImage expected = renderWithJournal(mArgs, false, new RenderMetrics());
+        long headerBytes = Files.size(journalPath) - (long) tiles * recordBytes;
+
+        // Flip the bits of the first rate of the first record
+        int ulX, ulY;
+        try( RandomAccessFile file = new RandomAccessFile(journalPath.toFile(), "rw") ) {
+            file.seek(headerBytes);
+            ulX = file.readInt();
+            ulY = file.readInt();
+            long rate = headerBytes + TileJournal.recordHeaderBytes;
+            file.seek(rate);
+            int b = file.read();
+            file.seek(rate);
+            file.write(b ^ 0xFF);
+        }
+
+        try( TileJournal journal = TileJournal.open(journalPath, mArgs, true) ) {
+            assertFalse(journal.restore(ulX, ulY, 16, 16, new int[16 * 16], 0, 16));
+        }
+
+        RenderMetrics metrics = new RenderMetrics();
+        BufferedImage resumed = renderWithJournal(mArgs, true, metrics);
+
+        assertEquals(tiles - 1, metrics.tilesResumed.sum());
+        assertPixelsEqual(expected, resumed);
+        assertEquals(headerBytes + (long) (tiles + 1) * recordBytes, Files.size(journalPath));
+
+        // The new record of the tile is taken over the damaged one
+        try( TileJournal journal = TileJournal.open(journalPath, mArgs, true) ) {
+            assertTrue(journal.restore(ulX, ulY, 16, 16, new int[16 * 16], 0, 16));
+        }
+        metrics = new RenderMetrics();
+        assertPixelsEqual(expected, renderWithJournal(mArgs, true, metrics));
+        assertEquals(tiles, metrics.tilesResumed.sum());
+    }
+
+    @Test
+    void journalOfDifferentRenderIsRefused() throws IOException {
+        renderWithJournal(args(render), false, new RenderMetrics());
+        byte[] before = Files.readAllBytes(journalPath);
+
+        String[] other = render.clone();
+        other[3] = "80";
+        IOException ex = assertThrows(IOException.class, () -> TileJournal.open(journalPath, args(other), true));
+
+        assertTrue(ex.getMessage().contains("different render"), ex.getMessage());
+        assertArrayEquals(before, Files.readAllBytes(journalPath));
+    }
+
+    @Test
+    void fileThatIsNotAJournalIsRefused() throws IOException {
+        Files.write(journalPath, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+
+        IOException ex = assertThrows(IOException.class, () -> TileJournal.open(journalPath, args(render), true));
+
+        assertTrue(ex.getMessage().contains("is not a tile journal"), ex.getMessage());
+    }
+
+    static MandelbrotArgs args(String[] args) {
+        MandelbrotArgs mArgs = MandelbrotArgs.parseArgs(args);
+        assertFalse(mArgs.parseErrors, mArgs.errorMsg);
+        return mArgs;
+    }
+
+    //
+    // Render mArgs, recording its tiles in the journal and taking those already there from it when resuming.
+    // The journal is closed but kept, as it is when a render is stopped.
+    //
+    BufferedImage renderWithJournal(MandelbrotArgs mArgs, boolean resume, RenderMetrics metrics) throws IOException {
+        try( TileJournal journal = TileJournal.open(journalPath, mArgs, resume) ) {
+            return Mandelbrot.render(mArgs, null, journal, metrics, RenderDeadline.none, pool);
+        }
+    }
+
+    static void assertPixelsEqual(BufferedImage expected, BufferedImage actual) {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        assertEquals(width, actual.getWidth());
+        assertEquals(height, actual.getHeight());
+        assertArrayEquals(expected.getRGB(0, 0, width, height, null, 0, width),
+                actual.getRGB(0, 0, width, height, null, 0, width));
+    }
+}